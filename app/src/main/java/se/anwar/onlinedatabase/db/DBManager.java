@@ -2,11 +2,9 @@ package se.anwar.onlinedatabase.db;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-
-import java.util.ArrayList;
-import java.util.List;
 
+import se.anwar.online_database.PagedQuery;
+import se.anwar.online_database.RowMapper;
 import se.anwar.online_database.SQLiteOnlineHelper;
 
 public class DBManager extends SQLiteOnlineHelper {
@@ -18,6 +16,7 @@ public class DBManager extends SQLiteOnlineHelper {
     private static final int DATABASE_VERSION = 1;
     private static final String DATABASE_NAME = "books.db";
     private static final String TAG = "DBManager_Log";
+    private static final int QUERY_CACHE_SIZE = 512 * 1024;
     //endregion
 
     //region Variables
@@ -27,27 +26,30 @@ public class DBManager extends SQLiteOnlineHelper {
     //region InitDatabase
     private DBManager(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setQueryCacheSize(QUERY_CACHE_SIZE);
     }
 
     public static DBManager getInstance(Context context) {
         if (INSTANTS == null) {
-            INSTANTS = new DBManager(context);
+            // outlives any activity, don't hold on to the one asking first
+            INSTANTS = new DBManager(context.getApplicationContext());
         }
         return INSTANTS;
     }
     //endregion
 
     //region Books
-    public List<String> getBooks() {
-        List<String> books = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor c = db.rawQuery("SELECT * FROM " + TABLE_BOOK, null);
-        while (c.moveToNext()) {
-            books.add(c.getString(c.getColumnIndex(COL_Book_TITLE)));
-        }
-        c.close();
-        db.close();
-        return books;
+    /**
+     * @return the book titles, read {@code pageSize} at a time
+     */
+    public PagedQuery<String> getBooks(int pageSize) {
+        return pagedQuery(TABLE_BOOK, new String[]{COL_Book_TITLE}, null, null, null, pageSize,
+                new RowMapper<String>() {
+                    @Override
+                    public String map(Cursor cursor) {
+                        return cursor.getString(0);
+                    }
+                });
     }
     //endregion
 
@@ -1,16 +1,24 @@
 package se.anwar.onlinedatabase.ui;
 
 import android.os.Bundle;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import se.anwar.online_database.PagedQuery;
+import se.anwar.online_database.SQLiteOnlineHelper;
 import se.anwar.onlinedatabase.R;
 import se.anwar.onlinedatabase.db.DBManager;
 
-public class ListActivity extends AppCompatActivity {
+public class ListActivity extends AppCompatActivity implements SQLiteOnlineHelper.OnDatabaseUpdatedListener {
+
+    private static final int PAGE_SIZE = 50;
+
+    private PagedQuery<String> books;
+    private ArrayAdapter<String> adapter;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -19,13 +27,47 @@ public class ListActivity extends AppCompatActivity {
         ListView listView = findViewById(R.id.lst_books);
 
         DBManager dbManager = DBManager.getInstance(this);
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+        dbManager.addOnDatabaseUpdatedListener(this);
+        books = dbManager.getBooks(PAGE_SIZE);
+        adapter = new ArrayAdapter<>(
                 this,
                 android.R.layout.simple_list_item_1,
-                android.R.id.text1,
-                dbManager.getBooks()
+                android.R.id.text1
         );
         listView.setAdapter(adapter);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                // load the next page when the last one is about to scroll into view
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
+        loadNextPage();
+    }
+
+    @Override
+    protected void onDestroy() {
+        DBManager dbManager = DBManager.getInstance(this);
+        dbManager.removeOnDatabaseUpdatedListener(this);
+        if (isFinishing()) dbManager.stopRevalidation();
+        super.onDestroy();
     }
-    
+
+    @Override
+    public void onDatabaseUpdated() {
+        adapter.clear();
+        books.reset();
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (books.hasMore()) adapter.addAll(books.nextPage());
+    }
+
 }
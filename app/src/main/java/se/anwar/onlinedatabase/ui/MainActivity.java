@@ -11,6 +11,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import se.anwar.online_database.SQLiteOnlineHelper;
+import se.anwar.online_database.UpdateConstraints;
 import se.anwar.onlinedatabase.R;
 import se.anwar.onlinedatabase.db.DBManager;
 
@@ -20,8 +21,13 @@ public class MainActivity extends AppCompatActivity implements SQLiteOnlineHelpe
     private static final String TAG = "MainActivity_Log";
     private static final String FILE_URL =
             "http://download1489.mediafire.com/rcqfw3zqj1mg/cj8dihw60zoa8q6/books.db.zip";
+    private static final UpdateConstraints UPDATE_CONSTRAINTS = new UpdateConstraints.Builder()
+            .setRequiresUnmeteredNetwork(true)
+            .setRequiresIdle(true)
+            .build();
     private SeekBar seekBar;
     private TextView textProgress;
+    private boolean showingBooks = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -32,6 +38,14 @@ public class MainActivity extends AppCompatActivity implements SQLiteOnlineHelpe
         downloadData();
     }
 
+    @Override
+    protected void onDestroy() {
+        // a rotation calls downloadData again, which replaces the pending revalidation;
+        // once the list is shown, ListActivity stops it
+        if (isFinishing() && !showingBooks) DBManager.getInstance(this).stopRevalidation();
+        super.onDestroy();
+    }
+
     @Override
     public void onDownloadStart() {
         seekBar.setVisibility(View.VISIBLE);
@@ -61,13 +75,17 @@ public class MainActivity extends AppCompatActivity implements SQLiteOnlineHelpe
 
     private void downloadData() {
         DBManager dbManager = DBManager.getInstance(this);
-        if (dbManager.shouldDownloadDatabase())
-            dbManager.downloadDatabase(FILE_URL, this);
-        else
+        if (dbManager.isDatabaseAvailable()) {
+            // show what we have, ListActivity reloads once a newer database is installed
+            dbManager.revalidate(FILE_URL, UPDATE_CONSTRAINTS, null);
             showBooks();
+        } else {
+            dbManager.revalidate(FILE_URL, UPDATE_CONSTRAINTS, this);
+        }
     }
 
     private void showBooks() {
+        showingBooks = true;
         startActivity(new Intent(this, ListActivity.class));
         finish();
     }
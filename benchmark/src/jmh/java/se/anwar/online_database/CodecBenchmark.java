@@ -0,0 +1,58 @@
+package se.anwar.online_database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Installing the sample database from each archive format, through the same
+ * codec lookup and copy as {@code copyDatabaseFromZip}. The archives are kept
+ * next to the sample databases in {@link SampleDatabase#directory()}, e.g.
+ * {@code 16mb-books.db.zst}, to compare their sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int sizeMb;
+
+    @Param({".zip", ".gz", ".zst", ".xz"})
+    public String format;
+
+    private File mArchive;
+    private File mOutput;
+
+    @Setup
+    public void setUp() throws IOException {
+        File database = SampleDatabase.get(sizeMb);
+        mArchive = SampleDatabase.archive(database, format);
+        mOutput = File.createTempFile("codec", ".db", SampleDatabase.directory());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Utils.deleteQuietly(mOutput);
+    }
+
+    @Benchmark
+    public long install() throws IOException {
+        InputStream in = Codecs.open(new FileInputStream(mArchive), mArchive.getName());
+        Utils.writeExtractedFileToDisk(in, new FileOutputStream(mOutput), FsyncPolicy.NONE);
+        return mOutput.length();
+    }
+}
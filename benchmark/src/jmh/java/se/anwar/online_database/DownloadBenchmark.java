@@ -0,0 +1,106 @@
+package se.anwar.online_database;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloading the sample database from an in-process HTTP server, zipped or
+ * raw (served as {@code application/x-sqlite3}): saving the download, and
+ * streaming it straight into the database file.
+ * Throughput is limited by the loopback connection and the copy loops, not by
+ * a real network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DownloadBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int sizeMb;
+
+    @Param({"zip", "raw"})
+    public String format;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+    private File mDirectory;
+    private File mDestination;
+    private String mUrl;
+
+    @Setup
+    public void setUp() throws IOException {
+        final boolean raw = format.equals("raw");
+        final File archive = raw ? SampleDatabase.get(sizeMb) : SampleDatabase.archive(SampleDatabase.get(sizeMb), ".zip");
+        mExecutor = Executors.newCachedThreadPool();
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type", raw ? "application/x-sqlite3" : "application/zip");
+                exchange.sendResponseHeaders(200, archive.length());
+                InputStream in = new FileInputStream(archive);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    byte[] buffer = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+                } finally {
+                    in.close();
+                    out.close();
+                }
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+        mUrl = "http://" + mServer.getAddress().getHostString() + ":" + mServer.getAddress().getPort()
+                + "/" + SampleDatabase.NAME + (raw ? "" : ".zip");
+
+        mDirectory = new File(SampleDatabase.directory(), "download");
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) throw new IOException("Can't create " + mDirectory);
+        mDestination = new File(mDirectory, SampleDatabase.NAME + ".tmp");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+        // the archive and the staged database
+        Utils.deleteDownloadFiles(new File(mDirectory, SampleDatabase.NAME).getPath());
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        HttpDownloader downloader = new HttpDownloader(mDirectory, null);
+        downloader.setRawDestination(mDestination);
+        return downloader.download(mUrl, null).length();
+    }
+
+    @Benchmark
+    public long downloadAndExtract() throws IOException {
+        HttpDownloader downloader = new HttpDownloader(mDirectory, null);
+        downloader.downloadAndExtract(mUrl, mDestination, null);
+        return mDestination.length();
+    }
+}
@@ -0,0 +1,88 @@
+package se.anwar.online_database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracting a downloaded archive to disk, with different read buffer sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExtractBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int sizeMb;
+
+    @Param({"8192", "32768", "131072"})
+    public int bufferSize;
+
+    private File mDatabase;
+    private File mZip;
+    private File mGzip;
+    private File mBlockGzip;
+    private File mOutput;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDatabase = SampleDatabase.get(sizeMb);
+        mZip = SampleDatabase.archive(mDatabase, ".zip");
+        mGzip = SampleDatabase.archive(mDatabase, ".gz");
+        mBlockGzip = SampleDatabase.archive(mDatabase, ".bgz");
+        mOutput = File.createTempFile("extract", ".db", SampleDatabase.directory());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Utils.deleteQuietly(mOutput);
+    }
+
+    /**
+     * The copy loop alone, reading the plain database through a buffered stream.
+     */
+    @Benchmark
+    public long writeExtractedFileToDisk() throws IOException {
+        Utils.writeExtractedFileToDisk(new BufferedInputStream(new FileInputStream(mDatabase), bufferSize),
+                new FileOutputStream(mOutput));
+        return mOutput.length();
+    }
+
+    @Benchmark
+    public long getFileFromZip() throws IOException {
+        ZipInputStream zis = Utils.getFileFromZip(new BufferedInputStream(new FileInputStream(mZip), bufferSize));
+        Utils.writeExtractedFileToDisk(zis, new FileOutputStream(mOutput));
+        return mOutput.length();
+    }
+
+    @Benchmark
+    public long gzip() throws IOException {
+        Utils.writeExtractedFileToDisk(new GZIPInputStream(new FileInputStream(mGzip), bufferSize),
+                new FileOutputStream(mOutput));
+        return mOutput.length();
+    }
+
+    /**
+     * The same data as {@link #gzip}, block compressed and inflated on every core.
+     * Doesn't use {@link #bufferSize}.
+     */
+    @Benchmark
+    public long blockGzip() throws IOException {
+        return BlockGzip.decompress(mBlockGzip, mOutput, FsyncPolicy.NONE);
+    }
+}
@@ -0,0 +1,228 @@
+package se.anwar.online_database;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A generated book catalog database of a given size, and archives of it in
+ * each format. Files are cached in the temp directory across forks and runs.
+ */
+final class SampleDatabase {
+
+    static final String NAME = "books.db";
+
+    private static final File DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "sqlite-online-benchmark");
+    private static final int BATCH = 1000;
+    private static final int WORDS = 2000;
+
+    private SampleDatabase() {
+    }
+
+    static File directory() {
+        if (!DIRECTORY.exists() && !DIRECTORY.mkdirs()) {
+            throw new IllegalStateException("Can't create " + DIRECTORY);
+        }
+        return DIRECTORY;
+    }
+
+    /**
+     * @return a database of at least {@code sizeMb} MB
+     */
+    static synchronized File get(int sizeMb) throws IOException {
+        File file = new File(directory(), sizeMb + "mb-" + NAME);
+        if (file.exists()) return file;
+        File partial = new File(directory(), file.getName() + ".part");
+        partial.delete();
+        try {
+            generate(partial, sizeMb * 1024L * 1024L);
+        } catch (SQLException e) {
+            throw new IOException("Can't generate " + file, e);
+        }
+        if (!partial.renameTo(file)) throw new IOException("Can't rename " + partial);
+        return file;
+    }
+
+    /**
+     * @param extension {@code .zip}, {@code .gz}, {@code .bgz} (block gzip, see
+     *                  {@link BlockGzip}), {@code .zst} or {@code .xz}
+     * @return {@code database} compressed into that format
+     */
+    static synchronized File archive(File database, String extension) throws IOException {
+        File file = new File(database.getPath() + extension);
+        if (file.exists()) return file;
+        File partial = new File(file.getPath() + ".part");
+        OutputStream out = compress(new FileOutputStream(partial), extension);
+        InputStream in = new FileInputStream(database);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+        } finally {
+            in.close();
+            out.close();
+        }
+        if (!partial.renameTo(file)) throw new IOException("Can't rename " + partial);
+        return file;
+    }
+
+    private static OutputStream compress(OutputStream out, String extension) throws IOException {
+        switch (extension) {
+            case ".zip":
+                ZipOutputStream zip = new ZipOutputStream(out);
+                zip.putNextEntry(new ZipEntry(NAME));
+                return zip;
+            case ".gz":
+                return new GZIPOutputStream(out, 64 * 1024);
+            case ".bgz":
+                return new BlockGzipOutputStream(out);
+            case ".zst":
+                return new ZstdOutputStream(out, 19);
+            case ".xz":
+                return new XZOutputStream(out, new LZMA2Options(LZMA2Options.PRESET_DEFAULT));
+            default:
+                throw new IllegalArgumentException("Unknown archive format " + extension);
+        }
+    }
+
+    private static void generate(File file, long size) throws SQLException {
+        Random random = new Random(42);
+        String[] words = new String[WORDS];
+        for (int i = 0; i < words.length; i++) words[i] = word(random);
+
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        try {
+            connection.setAutoCommit(false);
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE book (_id INTEGER PRIMARY KEY, title TEXT NOT NULL,"
+                    + " author TEXT, year INTEGER, price REAL, summary TEXT)");
+            statement.execute("CREATE INDEX book_title ON book (title)");
+            statement.close();
+            connection.commit();
+
+            PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO book (title, author, year, price, summary) VALUES (?, ?, ?, ?, ?)");
+            while (file.length() < size) {
+                for (int i = 0; i < BATCH; i++) {
+                    insert.setString(1, sentence(random, words, 2 + random.nextInt(5)));
+                    insert.setString(2, sentence(random, words, 2));
+                    insert.setInt(3, 1800 + random.nextInt(220));
+                    insert.setDouble(4, random.nextInt(10000) / 100.0);
+                    insert.setString(5, sentence(random, words, 20 + random.nextInt(60)));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                connection.commit();
+            }
+            insert.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static String word(Random random) {
+        char[] chars = new char[3 + random.nextInt(8)];
+        for (int i = 0; i < chars.length; i++) chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    private static String sentence(Random random, String[] words, int count) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sentence.append(' ');
+            // a skewed pick, some words are much more common than others
+            double r = random.nextDouble();
+            sentence.append(words[(int) (r * r * words.length)]);
+        }
+        return sentence.toString();
+    }
+
+    /**
+     * Writes BGZF like {@code bgzip}: deflate members of 0xff00 bytes each, with
+     * the member size in a {@code BC} extra field, and the empty end-of-file member.
+     */
+    private static final class BlockGzipOutputStream extends OutputStream {
+        private static final int BLOCK = 0xff00;
+        private static final byte[] EOF = {
+                0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+        private final OutputStream mOut;
+        private final byte[] mBuffer = new byte[BLOCK];
+        private final byte[] mCompressed = new byte[BLOCK + 1024];
+        private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 mCrc = new CRC32();
+        private int mCount;
+
+        BlockGzipOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, BLOCK - mCount);
+                System.arraycopy(b, off, mBuffer, mCount, n);
+                mCount += n;
+                off += n;
+                len -= n;
+                if (mCount == BLOCK) flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            mDeflater.reset();
+            mDeflater.setInput(mBuffer, 0, mCount);
+            mDeflater.finish();
+            int length = 0;
+            while (!mDeflater.finished()) {
+                length += mDeflater.deflate(mCompressed, length, mCompressed.length - length);
+            }
+            mCrc.reset();
+            mCrc.update(mBuffer, 0, mCount);
+            int blockSize = 18 + length + 8 - 1;
+            mOut.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                    (byte) blockSize, (byte) (blockSize >> 8)});
+            mOut.write(mCompressed, 0, length);
+            writeInt((int) mCrc.getValue());
+            writeInt(mCount);
+            mCount = 0;
+        }
+
+        private void writeInt(int value) throws IOException {
+            mOut.write(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mCount > 0) flushBlock();
+            mOut.write(EOF);
+            mDeflater.end();
+            mOut.close();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package android.content;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public abstract class BroadcastReceiver {
+    public abstract void onReceive(Context context, Intent intent);
+}
@@ -0,0 +1,18 @@
+package android.content;
+
+import android.content.pm.ApplicationInfo;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public abstract class Context {
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+
+    public abstract ApplicationInfo getApplicationInfo();
+
+    public abstract Context getApplicationContext();
+
+    public abstract Object getSystemService(String name);
+
+    public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+}
@@ -0,0 +1,12 @@
+package android.content;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class Intent {
+    public static final String ACTION_BATTERY_CHANGED = "android.intent.action.BATTERY_CHANGED";
+
+    public int getIntExtra(String name, int defaultValue) {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,10 @@
+package android.content;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class IntentFilter {
+    public IntentFilter(String action) {
+        throw new RuntimeException("Stub!");
+    }
+}
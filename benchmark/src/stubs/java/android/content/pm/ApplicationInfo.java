@@ -0,0 +1,8 @@
+package android.content.pm;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class ApplicationInfo {
+    public String dataDir;
+}
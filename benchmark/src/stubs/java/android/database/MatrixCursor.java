@@ -0,0 +1,58 @@
+package android.database;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class MatrixCursor implements Cursor {
+    public MatrixCursor(String[] columnNames, int initialCapacity) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void addRow(Object[] columnValues) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public int getCount() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public boolean moveToFirst() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public boolean moveToNext() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public int getColumnCount() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public String[] getColumnNames() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public int getType(int columnIndex) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public String getString(int columnIndex) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public long getLong(int columnIndex) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public double getDouble(int columnIndex) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public byte[] getBlob(int columnIndex) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void close() {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,48 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+import java.io.Closeable;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public abstract class SQLiteDatabase implements Closeable {
+    public static final int OPEN_READWRITE = 0x00000000;
+    public static final int OPEN_READONLY = 0x00000001;
+    public static final int MAX_SQL_CACHE_SIZE = 100;
+
+    public interface CursorFactory {
+    }
+
+    public static SQLiteDatabase openDatabase(String path, CursorFactory factory, int flags) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public abstract int getVersion();
+
+    public abstract void setVersion(int version);
+
+    public abstract String getPath();
+
+    public abstract boolean isOpen();
+
+    public abstract boolean isReadOnly();
+
+    public abstract void close();
+
+    public abstract void beginTransaction();
+
+    public abstract void setTransactionSuccessful();
+
+    public abstract void endTransaction();
+
+    public abstract Cursor rawQuery(String sql, String[] selectionArgs);
+
+    public abstract void execSQL(String sql, Object[] bindArgs);
+
+    public abstract SQLiteStatement compileStatement(String sql);
+
+    public abstract boolean enableWriteAheadLogging();
+
+    public abstract void setMaxSqlCacheSize(int cacheSize);
+}
@@ -0,0 +1,7 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class SQLiteDoneException extends SQLiteException {
+}
@@ -0,0 +1,13 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class SQLiteException extends RuntimeException {
+    public SQLiteException() {
+    }
+
+    public SQLiteException(String error) {
+        super(error);
+    }
+}
@@ -0,0 +1,37 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public abstract class SQLiteOpenHelper {
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public SQLiteDatabase getWritableDatabase() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public SQLiteDatabase getReadableDatabase() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void close() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void onConfigure(SQLiteDatabase db) {
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+
+    public void onOpen(SQLiteDatabase db) {
+    }
+}
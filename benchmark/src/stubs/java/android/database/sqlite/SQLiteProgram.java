@@ -0,0 +1,22 @@
+package android.database.sqlite;
+
+import java.io.Closeable;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public abstract class SQLiteProgram implements Closeable {
+    public abstract void bindNull(int index);
+
+    public abstract void bindLong(int index, long value);
+
+    public abstract void bindDouble(int index, double value);
+
+    public abstract void bindString(int index, String value);
+
+    public abstract void bindBlob(int index, byte[] value);
+
+    public abstract void clearBindings();
+
+    public abstract void close();
+}
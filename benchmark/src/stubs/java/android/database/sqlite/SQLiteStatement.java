@@ -0,0 +1,12 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public abstract class SQLiteStatement extends SQLiteProgram {
+    public abstract void execute();
+
+    public abstract long simpleQueryForLong();
+
+    public abstract String simpleQueryForString();
+}
@@ -0,0 +1,17 @@
+package android.net;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class ConnectivityManager {
+    public static final int TYPE_WIFI = 1;
+    public static final int TYPE_ETHERNET = 9;
+
+    public NetworkInfo getActiveNetworkInfo() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public boolean isActiveNetworkMetered() {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,14 @@
+package android.net;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class NetworkInfo {
+    public boolean isConnected() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public int getType() {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,8 @@
+package android.os;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class BatteryManager {
+    public static final String EXTRA_PLUGGED = "plugged";
+}
@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class Handler {
+    public Handler(Looper looper) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final boolean post(Runnable r) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        throw new RuntimeException("Stub!");
+    }
+}
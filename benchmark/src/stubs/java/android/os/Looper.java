@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public final class Looper {
+    public static Looper getMainLooper() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static MessageQueue myQueue() {
+        throw new RuntimeException("Stub!");
+    }
+}
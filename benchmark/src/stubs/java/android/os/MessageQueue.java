@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public final class MessageQueue {
+    public void addIdleHandler(IdleHandler handler) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public interface IdleHandler {
+        boolean queueIdle();
+    }
+}
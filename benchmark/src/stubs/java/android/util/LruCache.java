@@ -0,0 +1,34 @@
+package android.util;
+
+/**
+ * Stand-in for the Android SDK class, see benchmark/build.gradle.
+ */
+public class LruCache<K, V> {
+    public LruCache(int maxSize) {
+        throw new RuntimeException("Stub!");
+    }
+
+    protected int sizeOf(K key, V value) {
+        throw new RuntimeException("Stub!");
+    }
+
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final V get(K key) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final V put(K key, V value) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final void evictAll() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final int maxSize() {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,4 @@
+# Optional decompression codecs, only used when the app adds the library
+-dontwarn com.github.luben.zstd.**
+-dontwarn org.tukaani.xz.**
+-dontwarn org.brotli.dec.**
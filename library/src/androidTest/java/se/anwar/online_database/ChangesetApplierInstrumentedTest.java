@@ -0,0 +1,154 @@
+package se.anwar.online_database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ChangesetApplierInstrumentedTest {
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE book (id INTEGER PRIMARY KEY, title TEXT, author TEXT)");
+        mDatabase.execSQL("INSERT INTO book VALUES (17, 'Solaris', 'Stanislaw Lem')");
+        mDatabase.execSQL("INSERT INTO book VALUES (18, 'Emma', 'Jane Austen')");
+        mDatabase.setVersion(3);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    private int apply(String changeset, int batchSize) throws IOException {
+        return new ChangesetApplier(mDatabase, batchSize).apply(new ByteArrayInputStream(changeset.getBytes("UTF-8")));
+    }
+
+    private String title(int id) {
+        Cursor cursor = mDatabase.rawQuery("SELECT title FROM book WHERE id = " + id, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : "<missing>";
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void insertsReplacesAndDeletes() throws IOException {
+        int version = apply("changeset\t3\t4\n"
+                + "table\tbook\tid\ttitle\tauthor\n"
+                + "+\t42\tDune\tFrank Herbert\n"
+                + "+\t18\tEmma\\tvol. 1\t\\N\n"
+                + "-\t17\n", 2);
+
+        assertEquals(4, version);
+        assertEquals(4, mDatabase.getVersion());
+        assertEquals("Dune", title(42));
+        assertEquals("Emma\tvol. 1", title(18));
+        assertEquals("<missing>", title(17));
+        Cursor cursor = mDatabase.rawQuery("SELECT author FROM book WHERE id = 18", null);
+        try {
+            cursor.moveToFirst();
+            assertNull(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void reapplyingIsIdempotent() throws IOException {
+        String changeset = "changeset\t3\t4\ntable\tbook\tid\ttitle\tauthor\n+\t42\tDune\tFrank Herbert\n-\t17\n";
+        apply(changeset, 100);
+        // as if interrupted before the version was written
+        mDatabase.setVersion(3);
+        apply(changeset, 100);
+
+        assertEquals("Dune", title(42));
+        assertEquals("<missing>", title(17));
+    }
+
+    @Test
+    public void secondTableLineWithOtherColumnsOfTheSameCount() throws IOException {
+        apply("changeset\t3\t4\n"
+                + "table\tbook\tid\ttitle\tauthor\n"
+                + "+\t42\tDune\tFrank Herbert\n"
+                + "table\tbook\tid\tauthor\ttitle\n"
+                + "+\t43\tWilliam Gibson\tNeuromancer\n", 100);
+
+        assertEquals("Dune", title(42));
+        assertEquals("Neuromancer", title(43));
+        Cursor cursor = mDatabase.rawQuery("SELECT author FROM book WHERE id = 43", null);
+        try {
+            cursor.moveToFirst();
+            assertEquals("William Gibson", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void rejectsChangesetForAnotherVersion() throws IOException {
+        try {
+            apply("changeset\t2\t3\ntable\tbook\tid\ttitle\tauthor\n+\t42\tDune\tFrank Herbert\n", 100);
+            fail();
+        } catch (SQLiteOnlineException expected) {
+        }
+        assertEquals(3, mDatabase.getVersion());
+        assertEquals("<missing>", title(42));
+    }
+
+    @Test
+    public void rowBeforeTableIsMalformed() throws IOException {
+        try {
+            apply("changeset\t3\t4\n+\t42\tDune\tFrank Herbert\n", 100);
+            fail();
+        } catch (SQLiteOnlineException expected) {
+            assertEquals("Malformed changeset at line 2: row before table", expected.getMessage());
+        }
+        assertEquals(3, mDatabase.getVersion());
+    }
+
+    @Test
+    public void rowWithWrongFieldCountRollsBackTheBatch() throws IOException {
+        try {
+            apply("changeset\t3\t4\n"
+                    + "table\tbook\tid\ttitle\tauthor\n"
+                    + "+\t42\tDune\tFrank Herbert\n"
+                    + "+\t43\tNeuromancer\n", 100);
+            fail();
+        } catch (SQLiteOnlineException expected) {
+            assertEquals("Malformed changeset at line 4: expected 3 field(s) after '+', got 2", expected.getMessage());
+        }
+        assertEquals("<missing>", title(42));
+        assertEquals(3, mDatabase.getVersion());
+    }
+
+    @Test
+    public void deleteWithExtraFieldsIsMalformed() throws IOException {
+        try {
+            apply("changeset\t3\t4\ntable\tbook\tid\ttitle\tauthor\n-\t17\tSolaris\n", 100);
+            fail();
+        } catch (SQLiteOnlineException expected) {
+            assertEquals("Malformed changeset at line 3: expected 1 field(s) after '-', got 2", expected.getMessage());
+        }
+        assertEquals("Solaris", title(17));
+    }
+}
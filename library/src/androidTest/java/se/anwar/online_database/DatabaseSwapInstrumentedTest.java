@@ -0,0 +1,133 @@
+package se.anwar.online_database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Installing a new file while readers still use the old one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseSwapInstrumentedTest {
+
+    private static final String QUERY = "SELECT title FROM book ORDER BY id";
+
+    private File mDirectory;
+    private SQLiteOnlineHelper mHelper;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDirectory = new File(context.getCacheDir(), "swap-test");
+        deleteDirectory();
+        assertTrue(mDirectory.mkdirs());
+        write(new File(mDirectory, "books.db"), "Solaris", "Emma");
+        // newer releases default to WAL, the first tests need a rollback journal
+        OpenOptions options = new OpenOptions.Builder().setJournalMode(OpenOptions.JournalMode.DELETE).build();
+        mHelper = new SQLiteOnlineHelper(context, "books.db", mDirectory.getPath(), null, 1, options);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        deleteDirectory();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    private static void write(File file, String... titles) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.execSQL("CREATE TABLE book (id INTEGER PRIMARY KEY, title TEXT)");
+            for (String title : titles) db.execSQL("INSERT INTO book (title) VALUES (?)", new Object[]{title});
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    private File stage(String... titles) {
+        File staged = new File(mDirectory, "books.db.tmp");
+        write(staged, titles);
+        return staged;
+    }
+
+    private static List<String> titles(Cursor cursor) {
+        List<String> titles = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) titles.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return titles;
+    }
+
+    @Test
+    public void cursorOpenAcrossSwapReadsOldFile() {
+        // SQLiteCursor runs the query on its first move, after the swap
+        Cursor cursor = mHelper.cachedQuery(QUERY, null);
+
+        mHelper.installStagedDatabase(stage("Dune"));
+
+        assertEquals(Arrays.asList("Dune"), titles(mHelper.cachedQuery(QUERY, null)));
+        assertEquals(Arrays.asList("Solaris", "Emma"), titles(cursor));
+    }
+
+    @Test
+    public void acquiredDatabaseClosesOnRelease() {
+        SQLiteDatabase db = mHelper.acquireReadableDatabase();
+
+        mHelper.installStagedDatabase(stage("Dune"));
+
+        assertEquals(Arrays.asList("Dune"), titles(mHelper.cachedQuery(QUERY, null)));
+        assertTrue(db.isOpen());
+        assertEquals(Arrays.asList("Solaris", "Emma"), titles(db.rawQuery(QUERY, null)));
+        mHelper.releaseDatabase(db);
+        assertFalse(db.isOpen());
+    }
+
+    @Test
+    public void walSwapWaitsForOpenCursor() throws InterruptedException {
+        mHelper.setConcurrentReads(2);
+        Cursor cursor = mHelper.cachedQuery(QUERY, null);
+        final File staged = stage("Dune");
+        Thread install = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mHelper.installStagedDatabase(staged);
+            }
+        });
+
+        install.start();
+        install.join(500);
+        assertTrue("the swap must wait for the open cursor", install.isAlive());
+        assertEquals(Arrays.asList("Solaris", "Emma"), titles(cursor));
+        install.join(5000);
+
+        assertFalse(install.isAlive());
+        assertEquals(Arrays.asList("Dune"), titles(mHelper.cachedQuery(QUERY, null)));
+    }
+}
@@ -0,0 +1,235 @@
+package se.anwar.online_database;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Parallel decompression of block-compressed gzip (BGZF, as written by
+ * {@code bgzip}): a series of gzip members of at most 64 KB each, whose
+ * header carries the compressed size of the member in a {@code BC} extra
+ * field and whose trailer holds the uncompressed size. Walking the headers
+ * gives the block index without inflating anything, so blocks are inflated
+ * on one worker per core and written straight to their offsets in the
+ * output. Any gunzip still reads these files as one stream.
+ * <p>
+ * Plain gzip has no member boundaries to split on and keeps going through
+ * {@link Codecs.GzipCodec}.
+ */
+class BlockGzip {
+
+    private static final String TAG = "BlockGzip_Log";
+    private static final int HEADER_LENGTH = 18;
+    private static final int TRAILER_LENGTH = 8;
+    private static final int FLAG_EXTRA = 4;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    /**
+     * Blocks per task, about 4 MB of output, so tasks outweigh their scheduling.
+     */
+    private static final int BLOCKS_PER_TASK = 64;
+
+    private BlockGzip() {
+    }
+
+    /**
+     * @return true if {@code file} starts with a BGZF block
+     */
+    static boolean isBlockCompressed(File file) {
+        byte[] header = new byte[HEADER_LENGTH];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0) return false;
+                read += n;
+            }
+            return readBlockSize(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN)) > 0;
+        } catch (IOException e) {
+            Log.w(TAG, "isBlockCompressed: ", e);
+            return false;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Decompress {@code archive} into {@code dest}, overwriting it.
+     *
+     * @return the uncompressed length
+     */
+    static long decompress(File archive, File dest, FsyncPolicy policy) throws IOException {
+        RandomAccessFile source = new RandomAccessFile(archive, "r");
+        RandomAccessFile target = null;
+        ExecutorService executor = null;
+        try {
+            final FileChannel in = source.getChannel();
+            List<Block> blocks = index(in);
+            Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            long total = last == null ? 0 : last.outputOffset + last.outputLength;
+
+            target = new RandomAccessFile(dest, "rw");
+            target.setLength(total);
+            final FileChannel out = target.getChannel();
+
+            List<List<Block>> batches = new ArrayList<>();
+            for (int start = 0; start < blocks.size(); start += BLOCKS_PER_TASK) {
+                batches.add(blocks.subList(start, Math.min(blocks.size(), start + BLOCKS_PER_TASK)));
+            }
+            int workers = Math.min(batches.size(), Runtime.getRuntime().availableProcessors());
+            Log.i(TAG, "decompress: " + blocks.size() + " blocks, " + total + " bytes on " + Math.max(1, workers) + " threads");
+            if (workers <= 1) {
+                for (List<Block> batch : batches) inflate(in, out, batch);
+            } else {
+                executor = Executors.newFixedThreadPool(workers);
+                List<Future<Void>> futures = new ArrayList<>();
+                for (final List<Block> batch : batches) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            inflate(in, out, batch);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures) Utils.await(future);
+            }
+
+            if (policy == FsyncPolicy.DATA) out.force(false);
+            else if (policy == FsyncPolicy.FULL) out.force(true);
+            return total;
+        } finally {
+            if (executor != null) executor.shutdownNow();
+            Utils.closeQuietly(target);
+            Utils.closeQuietly(source);
+        }
+    }
+
+    /**
+     * Walk the block headers and trailers, reading 22 bytes per block.
+     */
+    private static List<Block> index(FileChannel in) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long length = in.size();
+        long offset = 0;
+        long outputOffset = 0;
+        while (offset < length) {
+            header.clear();
+            readFully(in, header, offset);
+            int blockSize = readBlockSize(header);
+            if (blockSize <= 0 || offset + blockSize > length) {
+                throw new IOException("Invalid BGZF block at offset " + offset);
+            }
+            trailer.clear();
+            readFully(in, trailer, offset + blockSize - 4);
+            long outputLength = trailer.getInt(0) & 0xffffffffL;
+            if (outputLength > 0) {
+                blocks.add(new Block(offset, blockSize, outputOffset, (int) outputLength));
+                outputOffset += outputLength;
+            }
+            // zero length blocks are the end-of-file marker, or padding
+            offset += blockSize;
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the total size of the block starting with {@code header}, or -1
+     * if it isn't a BGZF block
+     */
+    private static int readBlockSize(ByteBuffer header) {
+        if ((header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b || header.get(2) != 8
+                || (header.get(3) & FLAG_EXTRA) == 0) {
+            return -1;
+        }
+        // bgzip writes the BC subfield alone, XLEN 6
+        int extraLength = header.getShort(10) & 0xffff;
+        if (extraLength != 6 || header.get(12) != 'B' || header.get(13) != 'C' || header.getShort(14) != 2) {
+            return -1;
+        }
+        return (header.getShort(16) & 0xffff) + 1;
+    }
+
+    private static void inflate(FileChannel in, FileChannel out, List<Block> blocks) throws IOException {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        // blocks are at most 64 KB either way, one pair of buffers serves the whole batch
+        ByteBuffer compressed = ByteBuffer.allocate(MAX_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] output = new byte[MAX_BLOCK_SIZE];
+        try {
+            for (Block block : blocks) {
+                if (block.outputLength > MAX_BLOCK_SIZE) {
+                    throw new IOException("Oversized BGZF block at offset " + block.offset);
+                }
+                compressed.clear();
+                compressed.limit(block.length);
+                readFully(in, compressed, block.offset);
+
+                inflater.reset();
+                inflater.setInput(compressed.array(), HEADER_LENGTH, block.length - HEADER_LENGTH - TRAILER_LENGTH);
+                int inflated = 0;
+                try {
+                    while (inflated < block.outputLength && !inflater.finished()) {
+                        int n = inflater.inflate(output, inflated, block.outputLength - inflated);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                        inflated += n;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt BGZF block at offset " + block.offset, e);
+                }
+                crc.reset();
+                crc.update(output, 0, inflated);
+                int expected = compressed.getInt(block.length - TRAILER_LENGTH);
+                if (inflated != block.outputLength || (int) crc.getValue() != expected) {
+                    throw new IOException("Checksum mismatch in BGZF block at offset " + block.offset);
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(output, 0, inflated);
+                long position = block.outputOffset;
+                while (buffer.hasRemaining()) position += out.write(buffer, position);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Unexpected end of BGZF file at offset " + position);
+            position += n;
+        }
+    }
+
+    private static class Block {
+        final long offset;
+        final int length;
+        final long outputOffset;
+        final int outputLength;
+
+        Block(long offset, int length, long outputOffset, int outputLength) {
+            this.offset = offset;
+            this.length = length;
+            this.outputOffset = outputOffset;
+            this.outputLength = outputLength;
+        }
+    }
+}
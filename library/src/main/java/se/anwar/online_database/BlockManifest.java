@@ -0,0 +1,83 @@
+package se.anwar.online_database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * Per-block hashes of a database version, used to find the blocks that changed
+ * between the local file and the remote one. The format is plain text:
+ * <pre>
+ * size 209715200
+ * block 65536
+ * algorithm SHA-256
+ * 3f79bb7b435b05321651daefd374cdc681dc06faa65e374e38337b88ca046dea
+ * ...
+ * </pre>
+ * followed by one hex hash per block, in file order. {@code algorithm} is
+ * optional and defaults to SHA-256. A block size that is a multiple of the
+ * SQLite page size keeps a changed page inside a single block.
+ */
+class BlockManifest {
+
+    private static final String DEFAULT_ALGORITHM = "SHA-256";
+
+    long size = -1;
+    int blockSize = -1;
+    String algorithm = DEFAULT_ALGORITHM;
+    final List<String> hashes = new ArrayList<>();
+
+    static BlockManifest parse(InputStream in) throws IOException {
+        BlockManifest manifest = new BlockManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (line.startsWith("size ")) {
+                manifest.size = Long.parseLong(line.substring(5).trim());
+            } else if (line.startsWith("block ")) {
+                manifest.blockSize = Integer.parseInt(line.substring(6).trim());
+            } else if (line.startsWith("algorithm ")) {
+                manifest.algorithm = line.substring(10).trim();
+            } else {
+                manifest.hashes.add(line.toLowerCase());
+            }
+        }
+        if (manifest.size < 0 || manifest.blockSize <= 0) {
+            throw new SQLiteOnlineException("Block manifest is missing its size or block header");
+        }
+        if (manifest.hashes.size() != manifest.getBlockCount()) {
+            throw new SQLiteOnlineException("Block manifest lists " + manifest.hashes.size()
+                    + " hashes, expected " + manifest.getBlockCount());
+        }
+        return manifest;
+    }
+
+    int getBlockCount() {
+        return (int) ((size + blockSize - 1) / blockSize);
+    }
+
+    long getBlockLength(int block) {
+        return Math.min(blockSize, size - (long) block * blockSize);
+    }
+
+    MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported manifest algorithm " + algorithm, e);
+        }
+    }
+
+    boolean matches(int block, MessageDigest digest) {
+        return hashes.get(block).equals(Utils.toHex(digest.digest()));
+    }
+}
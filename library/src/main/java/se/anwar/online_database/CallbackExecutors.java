@@ -0,0 +1,51 @@
+package se.anwar.online_database;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executors to deliver {@link SQLiteOnlineHelper.OnFileDownloadListener}
+ * callbacks on, see {@link SQLiteOnlineHelper#setCallbackExecutor(Executor)}.
+ */
+public final class CallbackExecutors {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private CallbackExecutors() {
+    }
+
+    /**
+     * @return an executor posting to the application main thread; the default
+     */
+    public static Executor mainThread() {
+        return forLooper(Looper.getMainLooper());
+    }
+
+    /**
+     * @return an executor posting to the thread of {@code looper}
+     */
+    public static Executor forLooper(Looper looper) {
+        final Handler handler = new Handler(looper);
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    /**
+     * @return an executor running callbacks right away on the download thread;
+     * listeners must not touch views and should return quickly
+     */
+    public static Executor direct() {
+        return DIRECT;
+    }
+}
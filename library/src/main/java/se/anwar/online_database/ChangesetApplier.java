@@ -0,0 +1,223 @@
+package se.anwar.online_database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * Applies a row-level changeset between two database versions. The format is
+ * UTF-8 text, one operation per line, fields separated by tabs:
+ * <pre>
+ * changeset	3	4
+ * table	book	id	title	author
+ * +	42	Dune	Frank Herbert
+ * -	17
+ * </pre>
+ * {@code changeset} names the version the changes apply to and the version they
+ * produce. {@code table} selects the table and its columns for the following
+ * lines; the first column is the key. {@code +} inserts or replaces a row and
+ * {@code -} deletes the row with the given key. In values {@code \N} is NULL and
+ * {@code \\}, {@code \t}, {@code \n}, {@code \r} are escapes. Every other
+ * value is bound as text: INTEGER, REAL and NUMERIC columns convert it by
+ * their affinity, BLOB and untyped columns store it as TEXT, so blobs can't
+ * be carried in a changeset.
+ * <p>
+ * A {@code +} row has one field per column and a {@code -} row only the key;
+ * any other count fails the changeset, rolling back the batch in progress.
+ * Operations are idempotent, so a changeset interrupted between two batches
+ * can simply be applied again.
+ */
+class ChangesetApplier {
+
+    private static final String TAG = "ChangesetApplier_Log";
+    private static final String NULL = "\\N";
+
+    private final SQLiteDatabase mDatabase;
+    private final int mBatchSize;
+    /**
+     * Compiled statements by SQL text.
+     */
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
+    private int mFromVersion = -1;
+    private int mToVersion = -1;
+    private long mOperations;
+
+    ChangesetApplier(SQLiteDatabase database, int batchSize) {
+        mDatabase = database;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * @return the version the database is at once the changeset is applied
+     */
+    int apply(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        SQLiteStatement insert = null;
+        SQLiteStatement delete = null;
+        int columns = 0;
+        int pending = 0;
+        mDatabase.beginTransaction();
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                List<String> fields = split(line);
+                String op = fields.get(0);
+                if ("changeset".equals(op)) {
+                    readHeader(fields);
+                } else if ("table".equals(op)) {
+                    if (fields.size() < 3) throw malformed(lineNumber, "table needs a name and key column");
+                    insert = getInsert(fields);
+                    delete = getDelete(fields);
+                    columns = fields.size() - 2;
+                } else if ("+".equals(op) || "-".equals(op)) {
+                    if (mToVersion < 0) throw malformed(lineNumber, "missing changeset header");
+                    if (insert == null) throw malformed(lineNumber, "row before table");
+                    // a short row would leave columns bound to NULL, a long one can't be bound at all
+                    int expected = "+".equals(op) ? columns : 1;
+                    if (fields.size() - 1 != expected) {
+                        throw malformed(lineNumber, "expected " + expected + " field(s) after '" + op
+                                + "', got " + (fields.size() - 1));
+                    }
+                    SQLiteStatement statement = "+".equals(op) ? insert : delete;
+                    statement.clearBindings();
+                    for (int i = 1; i < fields.size(); i++) {
+                        String value = fields.get(i);
+                        if (value == null) statement.bindNull(i);
+                        else statement.bindString(i, value);
+                    }
+                    statement.execute();
+                    mOperations++;
+                    if (++pending >= mBatchSize) {
+                        mDatabase.setTransactionSuccessful();
+                        mDatabase.endTransaction();
+                        mDatabase.beginTransaction();
+                        pending = 0;
+                    }
+                } else {
+                    throw malformed(lineNumber, "unknown operation '" + op + "'");
+                }
+            }
+            if (mToVersion < 0) throw new SQLiteOnlineException("Changeset is empty");
+            // the version only moves once every row is in
+            mDatabase.setVersion(mToVersion);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            for (SQLiteStatement statement : mStatements.values()) statement.close();
+            mStatements.clear();
+        }
+        Log.i(TAG, "apply: " + mOperations + " operations, now at version " + mToVersion);
+        return mToVersion;
+    }
+
+    long getOperationCount() {
+        return mOperations;
+    }
+
+    private void readHeader(List<String> fields) {
+        if (fields.size() != 3) throw new SQLiteOnlineException("Malformed changeset header");
+        mFromVersion = Integer.parseInt(fields.get(1));
+        mToVersion = Integer.parseInt(fields.get(2));
+        int version = mDatabase.getVersion();
+        if (version != mFromVersion) {
+            throw new SQLiteOnlineException("Changeset applies to version " + mFromVersion
+                    + " but the database is at version " + version);
+        }
+    }
+
+    private SQLiteStatement getInsert(List<String> fields) {
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(quote(fields.get(1))).append(" (");
+        StringBuilder values = new StringBuilder();
+        for (int i = 2; i < fields.size(); i++) {
+            if (i > 2) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            sql.append(quote(fields.get(i)));
+            values.append('?');
+        }
+        sql.append(") VALUES (").append(values).append(')');
+        // a later table line may list other columns, or the same in another order
+        return getStatement(sql.toString());
+    }
+
+    private SQLiteStatement getDelete(List<String> fields) {
+        return getStatement("DELETE FROM " + quote(fields.get(1)) + " WHERE " + quote(fields.get(2)) + " = ?");
+    }
+
+    private SQLiteStatement getStatement(String sql) {
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mDatabase.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private static SQLiteOnlineException malformed(int line, String reason) {
+        return new SQLiteOnlineException("Malformed changeset at line " + line + ": " + reason);
+    }
+
+    /**
+     * Split a line on tabs, unescaping values; {@code \N} becomes null.
+     */
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int tab = line.indexOf('\t', start);
+            String field = tab < 0 ? line.substring(start) : line.substring(start, tab);
+            fields.add(unescape(field));
+            if (tab < 0) return fields;
+            start = tab + 1;
+        }
+    }
+
+    private static String unescape(String field) {
+        if (NULL.equals(field)) return null;
+        if (field.indexOf('\\') < 0) return field;
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                switch (next) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,262 @@
+package se.anwar.online_database;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Registry of {@link DecompressionCodec}s. zip and gzip are always there; zstd,
+ * xz and brotli are registered when their library is on the classpath
+ * ({@code com.github.luben:zstd-jni}, {@code org.tukaani:xz}, {@code org.brotli:dec}).
+ */
+class Codecs {
+
+    private static final String TAG = "Codecs_Log";
+    private static final int HEADER_SIZE = 8;
+    /**
+     * The first 16 bytes of every SQLite database file.
+     */
+    private static final byte[] SQLITE_MAGIC = {
+            'S', 'Q', 'L', 'i', 't', 'e', ' ', 'f', 'o', 'r', 'm', 'a', 't', ' ', '3', 0};
+
+    private static final List<DecompressionCodec> sCodecs = new CopyOnWriteArrayList<>();
+
+    static {
+        sCodecs.add(new ZipCodec());
+        sCodecs.add(new GzipCodec());
+        // the optional codecs reference their library only once instantiated
+        if (isAvailable("com.github.luben.zstd.ZstdInputStream")) sCodecs.add(new ZstdCodec());
+        if (isAvailable("org.tukaani.xz.XZInputStream")) sCodecs.add(new XzCodec());
+        if (isAvailable("org.brotli.dec.BrotliInputStream")) sCodecs.add(new BrotliCodec());
+    }
+
+    private Codecs() {
+    }
+
+    /**
+     * Register {@code codec} ahead of the existing ones, replacing a codec
+     * with the same extension.
+     */
+    static void register(DecompressionCodec codec) {
+        if (codec == null) throw new IllegalArgumentException("codec must not be null");
+        for (DecompressionCodec existing : sCodecs) {
+            if (existing.getExtension().equalsIgnoreCase(codec.getExtension())) sCodecs.remove(existing);
+        }
+        sCodecs.add(0, codec);
+    }
+
+    static List<String> getExtensions() {
+        List<String> extensions = new ArrayList<>();
+        for (DecompressionCodec codec : sCodecs) extensions.add(codec.getExtension());
+        return extensions;
+    }
+
+    static DecompressionCodec forFileName(String fileName) {
+        String name = fileName.toLowerCase();
+        for (DecompressionCodec codec : sCodecs) {
+            if (name.endsWith(codec.getExtension().toLowerCase())) return codec;
+        }
+        return null;
+    }
+
+    static DecompressionCodec forHeader(byte[] header, int length) {
+        for (DecompressionCodec codec : sCodecs) {
+            if (codec.matches(header, length)) return codec;
+        }
+        return null;
+    }
+
+    /**
+     * @return the archive {@code <path><extension>} of a registered codec that
+     * exists, or null
+     */
+    static File findArchive(String path) {
+        for (DecompressionCodec codec : sCodecs) {
+            File file = new File(path + codec.getExtension());
+            if (file.exists()) return file;
+        }
+        return null;
+    }
+
+    /**
+     * Decompress {@code source}, choosing the codec by the extension of
+     * {@code fileName} or else by the magic bytes of the data.
+     *
+     * @return the decompressed stream, or null if no codec recognises the data
+     */
+    static InputStream open(InputStream source, String fileName) throws IOException {
+        InputStream in = new BufferedInputStream(source, CopyEngine.INFLATE_BUFFER_SIZE);
+        DecompressionCodec codec = forFileName(fileName);
+        if (codec == null) {
+            byte[] header = new byte[HEADER_SIZE];
+            int length = peek(in, header);
+            codec = forHeader(header, length);
+            if (codec != null) Log.i(TAG, "open: " + fileName + " looks like " + codec.getExtension());
+        }
+        return codec != null ? codec.decode(in) : null;
+    }
+
+    /**
+     * @return true if {@code in} is an uncompressed SQLite database, peeking at
+     * its header without consuming it; {@code in} must support mark/reset
+     */
+    static boolean isDatabase(InputStream in) throws IOException {
+        byte[] header = new byte[SQLITE_MAGIC.length];
+        int length = peek(in, header);
+        if (length < header.length) return false;
+        for (int i = 0; i < header.length; i++) {
+            if (header[i] != SQLITE_MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true for the media types servers send SQLite databases with
+     */
+    static boolean isDatabaseType(String contentType) {
+        if (contentType == null) return false;
+        int parameters = contentType.indexOf(';');
+        String type = (parameters >= 0 ? contentType.substring(0, parameters) : contentType).trim();
+        return type.equalsIgnoreCase("application/x-sqlite3") || type.equalsIgnoreCase("application/vnd.sqlite3");
+    }
+
+    /**
+     * Read the first bytes of {@code in} without consuming them.
+     */
+    static int peek(InputStream in, byte[] header) throws IOException {
+        in.mark(header.length);
+        try {
+            int length = 0;
+            int n;
+            while (length < header.length && (n = in.read(header, length, header.length - length)) != -1) {
+                length += n;
+            }
+            return length;
+        } finally {
+            in.reset();
+        }
+    }
+
+    static boolean startsWith(byte[] header, int length, int... magic) {
+        if (length < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[i] & 0xff) != magic[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isAvailable(String className) {
+        try {
+            Class.forName(className, false, Codecs.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    //region Built-in codecs
+    static class ZipCodec implements DecompressionCodec {
+        @Override
+        public String getExtension() {
+            return ".zip";
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return startsWith(header, length, 0x50, 0x4b, 0x03, 0x04);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            ZipInputStream zis = Utils.getFileFromZip(in);
+            if (zis == null) {
+                throw new SQLiteOnlineHelper.SQLiteOnlineException("Archive is missing a SQLite database file");
+            }
+            return zis;
+        }
+    }
+
+    static class GzipCodec implements DecompressionCodec {
+        @Override
+        public String getExtension() {
+            return ".gz";
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return startsWith(header, length, 0x1f, 0x8b);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            return new GZIPInputStream(in, CopyEngine.NETWORK_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Decodes frames with windows up to 128 MB ({@code zstd --long}, window log 27)
+     * with the library's default limits.
+     */
+    static class ZstdCodec implements DecompressionCodec {
+        @Override
+        public String getExtension() {
+            return ".zst";
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return startsWith(header, length, 0x28, 0xb5, 0x2f, 0xfd);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            return new com.github.luben.zstd.ZstdInputStream(in);
+        }
+    }
+
+    static class XzCodec implements DecompressionCodec {
+        @Override
+        public String getExtension() {
+            return ".xz";
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return startsWith(header, length, 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            return new org.tukaani.xz.XZInputStream(in);
+        }
+    }
+
+    /**
+     * Brotli streams have no magic number, they are only recognised by extension.
+     */
+    static class BrotliCodec implements DecompressionCodec {
+        @Override
+        public String getExtension() {
+            return ".br";
+        }
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            return false;
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            return new org.brotli.dec.BrotliInputStream(in);
+        }
+    }
+    //endregion
+}
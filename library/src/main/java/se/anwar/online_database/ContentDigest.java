@@ -0,0 +1,112 @@
+package se.anwar.online_database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * An expected checksum of a download, updated with the bytes as they pass
+ * through the copy loop so no second read pass is needed. Parsed from
+ * {@code "sha256:<hex>"}, {@code "crc32:<hex>"}, or a bare SHA-256 hex string.
+ */
+class ContentDigest {
+
+    private static final String SHA_256 = "sha256:";
+    private static final String CRC_32 = "crc32:";
+
+    private final String mAlgorithm;
+    private final String mExpected;
+    private final MessageDigest mMessageDigest;
+    private final CRC32 mCrc;
+
+    private ContentDigest(String algorithm, String expected) {
+        mAlgorithm = algorithm;
+        mExpected = expected.toLowerCase();
+        if ("crc32".equals(algorithm)) {
+            mCrc = new CRC32();
+            mMessageDigest = null;
+        } else {
+            mCrc = null;
+            try {
+                mMessageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+    }
+
+    /**
+     * @return a fresh digest, or null if {@code expected} is null
+     */
+    static ContentDigest parse(String expected) {
+        if (expected == null) return null;
+        String value = expected.trim();
+        if (value.regionMatches(true, 0, CRC_32, 0, CRC_32.length())) {
+            return new ContentDigest("crc32", value.substring(CRC_32.length()));
+        }
+        if (value.regionMatches(true, 0, SHA_256, 0, SHA_256.length())) {
+            value = value.substring(SHA_256.length());
+        }
+        if (value.length() != 64) {
+            throw new IllegalArgumentException("Expected a SHA-256 (64 hex digits) or crc32: digest, was " + expected);
+        }
+        return new ContentDigest("sha256", value);
+    }
+
+    void update(byte[] buffer, int offset, int length) {
+        if (mCrc != null) mCrc.update(buffer, offset, length);
+        else mMessageDigest.update(buffer, offset, length);
+    }
+
+    void update(int b) {
+        if (mCrc != null) mCrc.update(b);
+        else mMessageDigest.update((byte) b);
+    }
+
+    void reset() {
+        if (mCrc != null) mCrc.reset();
+        else mMessageDigest.reset();
+    }
+
+    /**
+     * Feed {@code length} bytes of {@code file} into the digest, for data written
+     * before this digest existed (a resumed partial download, or segments
+     * fetched out of order).
+     */
+    void update(File file, long length) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        byte[] buffer = CopyEngine.acquire(CopyEngine.FILE_BUFFER_SIZE);
+        try {
+            long remaining = length;
+            int n;
+            while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                update(buffer, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            CopyEngine.release(buffer);
+            Utils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Compare the bytes seen so far with the expected value.
+     *
+     * @throws IOException on mismatch
+     */
+    void verify(String what) throws IOException {
+        String actual;
+        if (mCrc != null) {
+            actual = Long.toHexString(mCrc.getValue());
+            while (actual.length() < 8) actual = "0" + actual;
+        } else {
+            actual = Utils.toHex(mMessageDigest.digest());
+        }
+        if (!actual.equals(mExpected)) {
+            throw new IOException(mAlgorithm + " mismatch for " + what + ": expected " + mExpected + ", got " + actual);
+        }
+    }
+}
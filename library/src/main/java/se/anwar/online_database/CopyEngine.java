@@ -0,0 +1,140 @@
+package se.anwar.online_database;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Copies streams with large, pooled buffers instead of a fresh 1 KB array per
+ * call. File to file copies skip the buffer entirely and go through
+ * {@link FileChannel#transferFrom}.
+ */
+class CopyEngine {
+
+    /**
+     * Network reads rarely return more than a few socket buffers at once.
+     */
+    static final int NETWORK_BUFFER_SIZE = 32 * 1024;
+    /**
+     * Inflaters fill large buffers from memory, fewer writes per MB.
+     */
+    static final int INFLATE_BUFFER_SIZE = 128 * 1024;
+    /**
+     * Local file reads, e.g. hashing or verifying blocks.
+     */
+    static final int FILE_BUFFER_SIZE = 256 * 1024;
+
+    private static final int MAX_POOLED_PER_SIZE = 8;
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    private static final Queue<byte[]> sNetworkBuffers = new ConcurrentLinkedQueue<>();
+    private static final Queue<byte[]> sInflateBuffers = new ConcurrentLinkedQueue<>();
+    private static final Queue<byte[]> sFileBuffers = new ConcurrentLinkedQueue<>();
+
+    private CopyEngine() {
+    }
+
+    //region Buffer pool
+    static byte[] acquire(int size) {
+        Queue<byte[]> pool = poolFor(size);
+        byte[] buffer = pool != null ? pool.poll() : null;
+        return buffer != null ? buffer : new byte[size];
+    }
+
+    static void release(byte[] buffer) {
+        Queue<byte[]> pool = poolFor(buffer.length);
+        // the size check is racy, the pool may briefly hold a few more buffers
+        if (pool != null && pool.size() < MAX_POOLED_PER_SIZE) pool.offer(buffer);
+    }
+
+    private static Queue<byte[]> poolFor(int size) {
+        switch (size) {
+            case NETWORK_BUFFER_SIZE:
+                return sNetworkBuffers;
+            case INFLATE_BUFFER_SIZE:
+                return sInflateBuffers;
+            case FILE_BUFFER_SIZE:
+                return sFileBuffers;
+            default:
+                return null;
+        }
+    }
+    //endregion
+
+    //region Copy
+
+    /**
+     * Copy {@code in} to {@code out} without closing either.
+     *
+     * @return number of bytes copied
+     */
+    static long copy(InputStream in, OutputStream out, int bufferSize) throws IOException {
+        if (in instanceof FileInputStream && out instanceof FileOutputStream) {
+            return transfer(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel());
+        }
+        byte[] buffer = acquire(bufferSize);
+        try {
+            long total = 0;
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+                total += length;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Copy the rest of {@code source} to the current position of {@code destination}
+     * in the kernel, without going through a Java buffer.
+     */
+    static long transfer(FileChannel source, FileChannel destination) throws IOException {
+        long position = destination.position();
+        long total = 0;
+        long count;
+        while ((count = destination.transferFrom(source, position + total, TRANSFER_CHUNK)) > 0) {
+            total += count;
+        }
+        destination.position(position + total);
+        return total;
+    }
+
+    /**
+     * Read and discard the rest of {@code in}.
+     */
+    static void drain(InputStream in) throws IOException {
+        byte[] buffer = acquire(NETWORK_BUFFER_SIZE);
+        try {
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            release(buffer);
+        }
+    }
+    //endregion
+
+    /**
+     * Flush {@code out} to storage as required by {@code policy}.
+     */
+    static void sync(FileOutputStream out, FsyncPolicy policy) throws IOException {
+        switch (policy) {
+            case DATA:
+                out.getChannel().force(false);
+                break;
+            case FULL:
+                out.getChannel().force(true);
+                break;
+            case NONE:
+            default:
+                break;
+        }
+    }
+}
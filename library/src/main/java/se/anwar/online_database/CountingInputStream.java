@@ -0,0 +1,80 @@
+package se.anwar.online_database;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the wrapped stream and reports them, so progress
+ * can be measured on the raw (compressed) bytes while a decompressor consumes them.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private final HttpDownloader.ProgressCallback mCallback;
+    private final long mTotal;
+    private long mCount;
+    private DownloadMetrics mMetrics;
+    private ContentDigest mDigest;
+
+    CountingInputStream(InputStream in, long total, HttpDownloader.ProgressCallback callback) {
+        super(in);
+        mTotal = total;
+        mCallback = callback;
+    }
+
+    void setMetrics(DownloadMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    void setDigest(ContentDigest digest) {
+        mDigest = digest;
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            if (mDigest != null) mDigest.update(b);
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            if (mDigest != null) mDigest.update(b, off, n);
+            count(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (mDigest != null) {
+            // skipped bytes still have to go through the digest
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return read < 0 ? 0 : read;
+        }
+        long skipped = super.skip(n);
+        if (skipped > 0) count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) {
+        mCount += n;
+        if (mMetrics != null) mMetrics.recordBytes(n);
+        if (mCallback != null) mCallback.onProgress(mCount, mTotal);
+    }
+}
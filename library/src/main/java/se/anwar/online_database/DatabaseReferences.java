@@ -0,0 +1,138 @@
+package se.anwar.online_database;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts who is using each connection a helper handed out, so a connection
+ * replaced by a newly installed file is closed when its last user releases
+ * it instead of under their feet.
+ */
+class DatabaseReferences {
+
+    private static final String TAG = "DatabaseReferences_Log";
+
+    private final Map<SQLiteDatabase, Integer> mCounts = new HashMap<>();
+    /**
+     * Replaced connections, closed on their last release.
+     */
+    private final Set<SQLiteDatabase> mRetired = new HashSet<>();
+    /**
+     * Run on the releasing thread when the last acquired connection is released.
+     */
+    private final Runnable mOnUnused;
+
+    DatabaseReferences(Runnable onUnused) {
+        mOnUnused = onUnused;
+    }
+
+    /**
+     * @return false if {@code db} was replaced or closed meanwhile, take the
+     * current connection and try again
+     */
+    synchronized boolean acquire(SQLiteDatabase db) {
+        if (mRetired.contains(db) || !db.isOpen()) return false;
+        Integer count = mCounts.get(db);
+        mCounts.put(db, count == null ? 1 : count + 1);
+        return true;
+    }
+
+    void release(SQLiteDatabase db) {
+        boolean retired;
+        boolean unused;
+        synchronized (this) {
+            Integer count = mCounts.get(db);
+            if (count == null) throw new IllegalArgumentException("Database was not acquired: " + db.getPath());
+            if (count > 1) {
+                mCounts.put(db, count - 1);
+                return;
+            }
+            mCounts.remove(db);
+            notifyAll();
+            retired = mRetired.remove(db);
+            unused = mCounts.isEmpty();
+        }
+        if (retired) close(db);
+        if (unused) mOnUnused.run();
+    }
+
+    /**
+     * Close {@code db} once it is released, right away if nobody uses it.
+     */
+    void retire(SQLiteDatabase db) {
+        synchronized (this) {
+            if (mCounts.containsKey(db)) {
+                mRetired.add(db);
+                return;
+            }
+        }
+        close(db);
+    }
+
+    /**
+     * @return true if no connection is acquired, retired ones are all closed then
+     */
+    synchronized boolean isUnused() {
+        return mCounts.isEmpty();
+    }
+
+    /**
+     * @return how many acquisitions weren't released yet
+     */
+    synchronized int count() {
+        int total = 0;
+        for (int count : mCounts.values()) total += count;
+        return total;
+    }
+
+    /**
+     * Wait up to {@code millis} for a release.
+     */
+    synchronized void awaitRelease(long millis) throws InterruptedException {
+        if (!mCounts.isEmpty()) wait(millis);
+    }
+
+    /**
+     * @return {@code cursor}, releasing {@code db} when it is closed
+     */
+    Cursor releaseOnClose(Cursor cursor, SQLiteDatabase db) {
+        return new ReleasingCursor(cursor, db);
+    }
+
+    private static void close(SQLiteDatabase db) {
+        if (!db.isOpen()) return;
+        try {
+            db.close();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "close: ", e);
+        }
+    }
+
+    private class ReleasingCursor extends CursorWrapper {
+        private SQLiteDatabase mDatabase;
+
+        ReleasingCursor(Cursor cursor, SQLiteDatabase db) {
+            super(cursor);
+            mDatabase = db;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            SQLiteDatabase db;
+            synchronized (this) {
+                db = mDatabase;
+                mDatabase = null;
+            }
+            if (db != null) release(db);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package se.anwar.online_database;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A compressed archive format the helper can install a database from. Codecs
+ * are picked by the file extension of the download, falling back to the magic
+ * bytes at the start of the data; see {@link SQLiteOnlineHelper#registerCodec}.
+ */
+public interface DecompressionCodec {
+
+    /**
+     * @return the file extension of this format including the dot, e.g. {@code ".zst"}
+     */
+    String getExtension();
+
+    /**
+     * @param header the first bytes of the data
+     * @param length number of valid bytes in {@code header}
+     * @return true if the data starts with this format's magic number; formats
+     * without one always return false
+     */
+    boolean matches(byte[] header, int length);
+
+    /**
+     * @param in buffered compressed data
+     * @return a stream of the decompressed database
+     */
+    InputStream decode(InputStream in) throws IOException;
+}
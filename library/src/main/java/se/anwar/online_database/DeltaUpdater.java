@@ -0,0 +1,180 @@
+package se.anwar.online_database;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * Brings a local database file up to date by fetching only the blocks whose
+ * hash differs from the {@link BlockManifest} of the new version. The local
+ * file is never modified: blocks are patched into a staged copy which is
+ * verified before it is handed back to the caller.
+ */
+class DeltaUpdater {
+
+    private static final String TAG = "DeltaUpdater_Log";
+
+    private long mBytesFetched;
+
+    /**
+     * @param manifestURL block manifest of the new version
+     * @param fileURL     the new, uncompressed database file; must support byte ranges
+     * @param local       current database, may be missing
+     * @param staged      file to build the new version in; overwritten
+     */
+    void sync(String manifestURL, String fileURL, File local, File staged,
+              HttpDownloader.ProgressCallback callback) throws IOException {
+        BlockManifest manifest = fetchManifest(manifestURL);
+        Log.i(TAG, "sync: " + manifest.getBlockCount() + " blocks of " + manifest.blockSize + " bytes");
+
+        if (local.exists()) {
+            Utils.copyFile(local, staged);
+        } else {
+            Utils.deleteQuietly(staged);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(staged, "rw");
+        try {
+            raf.setLength(manifest.size);
+            FileChannel channel = raf.getChannel();
+
+            List<long[]> ranges = findChangedRanges(manifest, channel, local.exists() ? local.length() : 0);
+            long changed = 0;
+            for (long[] range : ranges) changed += range[1] - range[0] + 1;
+            Log.i(TAG, "sync: " + ranges.size() + " changed ranges, " + changed + " of " + manifest.size + " bytes");
+
+            mBytesFetched = 0;
+            for (long[] range : ranges) {
+                fetchRange(fileURL, manifest, channel, range[0], range[1], changed, callback);
+            }
+            channel.force(false);
+        } finally {
+            Utils.closeQuietly(raf);
+        }
+    }
+
+    long getBytesFetched() {
+        return mBytesFetched;
+    }
+
+    private static BlockManifest fetchManifest(String manifestURL) throws IOException {
+        HttpURLConnection httpConnection = HttpDownloader.openConnection(manifestURL);
+        try {
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new SQLiteOnlineException
+                        ("No block manifest. Server replied HTTP code: " + responseCode);
+            }
+            InputStream in = httpConnection.getInputStream();
+            try {
+                return BlockManifest.parse(in);
+            } finally {
+                Utils.closeQuietly(in);
+            }
+        } finally {
+            httpConnection.disconnect();
+        }
+    }
+
+    /**
+     * Hash every block present locally and merge adjacent mismatching blocks into ranges.
+     *
+     * @return inclusive {@code [start, end]} byte ranges to fetch
+     */
+    private static List<long[]> findChangedRanges(BlockManifest manifest, FileChannel channel,
+                                                  long localLength) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        MessageDigest digest = manifest.newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(manifest.blockSize);
+        long[] current = null;
+        for (int block = 0; block < manifest.getBlockCount(); block++) {
+            long start = (long) block * manifest.blockSize;
+            long length = manifest.getBlockLength(block);
+            boolean same = false;
+            if (start + length <= localLength) {
+                buffer.clear();
+                buffer.limit((int) length);
+                while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0) {
+                    // keep reading
+                }
+                digest.update(buffer.array(), 0, buffer.position());
+                same = manifest.matches(block, digest);
+            }
+            if (same) {
+                current = null;
+            } else if (current != null && current[1] + 1 == start) {
+                current[1] = start + length - 1;
+            } else {
+                current = new long[]{start, start + length - 1};
+                ranges.add(current);
+            }
+        }
+        return ranges;
+    }
+
+    private void fetchRange(String fileURL, BlockManifest manifest, FileChannel channel,
+                            long start, long end, long changed,
+                            HttpDownloader.ProgressCallback callback) throws IOException {
+        HttpURLConnection httpConnection = HttpDownloader.openConnection(fileURL);
+        try {
+            httpConnection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL
+                    || HttpDownloader.getContentRangeStart(httpConnection) != start) {
+                throw new SQLiteOnlineException("Range " + start + "-" + end
+                        + " not served as a range, HTTP code: " + responseCode);
+            }
+
+            // blocks are verified as they arrive, so the patched file needs no second pass
+            MessageDigest digest = manifest.newDigest();
+            InputStream inputStream = httpConnection.getInputStream();
+            byte[] buffer = CopyEngine.acquire(CopyEngine.NETWORK_BUFFER_SIZE);
+            try {
+                long position = start;
+                int block = (int) (start / manifest.blockSize);
+                long blockEnd = (long) block * manifest.blockSize + manifest.getBlockLength(block);
+                while (position <= end) {
+                    int bytesRead = inputStream.read(buffer, 0,
+                            (int) Math.min(buffer.length, blockEnd - position));
+                    if (bytesRead == -1) {
+                        throw new IOException("Connection closed at " + position + " of range " + start + "-" + end);
+                    }
+                    ByteBuffer source = ByteBuffer.wrap(buffer, 0, bytesRead);
+                    while (source.hasRemaining()) {
+                        channel.write(source, position + source.position());
+                    }
+                    digest.update(buffer, 0, bytesRead);
+                    position += bytesRead;
+                    mBytesFetched += bytesRead;
+                    if (callback != null) callback.onProgress(mBytesFetched, changed);
+
+                    if (position == blockEnd) {
+                        if (!manifest.matches(block, digest)) {
+                            throw new SQLiteOnlineException("Block " + block + " does not match the manifest");
+                        }
+                        block++;
+                        if (block < manifest.getBlockCount()) {
+                            blockEnd += manifest.getBlockLength(block);
+                        }
+                    }
+                }
+            } finally {
+                CopyEngine.release(buffer);
+                Utils.closeQuietly(inputStream);
+            }
+        } finally {
+            httpConnection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package se.anwar.online_database;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.anwar.online_database.SQLiteOnlineHelper.OnFileDownloadListener;
+
+/**
+ * Runs the downloads of every helper on one shared, bounded executor.
+ * Requests for a database that is already being downloaded join the transfer
+ * in flight instead of starting a second one into the same file. Joiners are
+ * accepted until the task finishes running on the download thread, which is
+ * usually before its result reaches the callback executor; a listener that
+ * joined in time hears that result, a later one starts a new task. The start
+ * and progress a joiner missed are replayed on its own helper's callback
+ * executor, which may differ from the one the running task reports on.
+ */
+final class DownloadDispatcher {
+
+    private static final String TAG = "DownloadDispatcher_Log";
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    interface Task {
+        void run(OnFileDownloadListener listener);
+    }
+
+    private static final Map<String, ListenerGroup> sInFlight = new HashMap<>();
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+
+    private DownloadDispatcher() {
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                DEFAULT_MAX_CONCURRENT_DOWNLOADS, DEFAULT_MAX_CONCURRENT_DOWNLOADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "SQLiteOnline-download-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static synchronized void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        if (maxConcurrentDownloads < 1) {
+            throw new IllegalArgumentException("maxConcurrentDownloads must be >= 1, was " + maxConcurrentDownloads);
+        }
+        // keep core <= max at every step
+        if (maxConcurrentDownloads > sExecutor.getMaximumPoolSize()) {
+            sExecutor.setMaximumPoolSize(maxConcurrentDownloads);
+            sExecutor.setCorePoolSize(maxConcurrentDownloads);
+        } else {
+            sExecutor.setCorePoolSize(maxConcurrentDownloads);
+            sExecutor.setMaximumPoolSize(maxConcurrentDownloads);
+        }
+    }
+
+    /**
+     * Run a short background step, e.g. fetching a manifest, on the download threads.
+     */
+    static void execute(Runnable runnable) {
+        sExecutor.execute(runnable);
+    }
+
+    /**
+     * Run {@code task} for {@code key}, or attach {@code listener} to the task
+     * already running for it.
+     *
+     * @return null if the task was queued, otherwise the group of the task in
+     * flight that {@code listener} now belongs to
+     */
+    static ListenerGroup enqueue(final String key, OnFileDownloadListener listener, final Task task) {
+        final ListenerGroup group;
+        synchronized (sInFlight) {
+            ListenerGroup running = sInFlight.get(key);
+            if (running != null) {
+                Log.i(TAG, "enqueue: joining download in flight for " + key);
+                running.add(listener);
+                return running;
+            }
+            group = new ListenerGroup(key);
+            group.add(listener);
+            sInFlight.put(key, group);
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run(group);
+                } finally {
+                    // normally done when the result was delivered; covers a task that never reported one
+                    group.close();
+                }
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Fans the callbacks of one download out to every listener that asked for it.
+     */
+    static class ListenerGroup implements OnFileDownloadListener {
+
+        private final String mKey;
+        private final List<OnFileDownloadListener> mListeners = new CopyOnWriteArrayList<>();
+        /**
+         * Listeners that joined after the start was delivered, guarded by this.
+         */
+        private final Set<OnFileDownloadListener> mLate = new HashSet<>();
+        private boolean mStarted;
+        private volatile boolean mClosed;
+        private volatile int mProgress = -1;
+
+        ListenerGroup(String key) {
+            mKey = key;
+        }
+
+        /**
+         * Called with the {@code sInFlight} lock held.
+         */
+        void add(OnFileDownloadListener listener) {
+            if (listener == null) return;
+            synchronized (this) {
+                mListeners.add(listener);
+                if (mStarted) mLate.add(listener);
+            }
+        }
+
+        /**
+         * Stop taking joiners; later requests for the key start a new task.
+         */
+        void close() {
+            synchronized (sInFlight) {
+                mClosed = true;
+                if (sInFlight.get(mKey) == this) sInFlight.remove(mKey);
+            }
+        }
+
+        /**
+         * Tell a listener that joined late about the start and progress it
+         * missed, unless the result was delivered in the meantime.
+         */
+        void catchUp(OnFileDownloadListener listener) {
+            synchronized (this) {
+                if (!mLate.remove(listener) || mClosed) return;
+            }
+            listener.onDownloadStart();
+            if (mProgress >= 0) listener.onDownloadProgress(mProgress);
+        }
+
+        @Override
+        public void onDownloadStart() {
+            List<OnFileDownloadListener> listeners;
+            synchronized (this) {
+                mStarted = true;
+                listeners = new ArrayList<>(mListeners);
+            }
+            for (OnFileDownloadListener listener : listeners) listener.onDownloadStart();
+        }
+
+        @Override
+        public void onDownloadProgress(int progress) {
+            mProgress = progress;
+            for (OnFileDownloadListener listener : mListeners) listener.onDownloadProgress(progress);
+        }
+
+        @Override
+        public void onDownloadFailed(Exception e) {
+            close();
+            for (OnFileDownloadListener listener : mListeners) listener.onDownloadFailed(e);
+        }
+
+        @Override
+        public void onDownloadSuccess() {
+            close();
+            for (OnFileDownloadListener listener : mListeners) listener.onDownloadSuccess();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package se.anwar.online_database;
+
+/**
+ * Timings and throughput of one {@link SQLiteOnlineHelper#downloadDatabase}
+ * run, from the first request to the first open of the installed database.
+ * Durations are in milliseconds, -1 when the phase did not happen; when a
+ * transfer was retried, connection timings are those of the last attempt.
+ */
+public final class DownloadMetrics {
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long PEAK_WINDOW_NANOS = 1000 * NANOS_PER_MILLI;
+
+    private final long mStartNanos = System.nanoTime();
+    private long mTotalMillis = -1;
+    private long mDnsMillis = -1;
+    private long mConnectMillis = -1;
+    private long mTimeToFirstByteMillis = -1;
+    private long mTransferNanos;
+    private long mDecompressionMillis = -1;
+    private long mInstallMillis = -1;
+    private long mFirstOpenMillis = -1;
+    private long mBytesTransferred;
+    private long mPeakBytesPerSecond;
+    private int mRetryCount;
+    private boolean mSuccessful;
+
+    private long mWindowStartNanos;
+    private long mWindowBytes;
+
+    DownloadMetrics() {
+    }
+
+    private DownloadMetrics(DownloadMetrics other) {
+        mTotalMillis = other.mTotalMillis;
+        mDnsMillis = other.mDnsMillis;
+        mConnectMillis = other.mConnectMillis;
+        mTimeToFirstByteMillis = other.mTimeToFirstByteMillis;
+        mTransferNanos = other.mTransferNanos;
+        mDecompressionMillis = other.mDecompressionMillis;
+        mInstallMillis = other.mInstallMillis;
+        mFirstOpenMillis = other.mFirstOpenMillis;
+        mBytesTransferred = other.mBytesTransferred;
+        mPeakBytesPerSecond = other.mPeakBytesPerSecond;
+        mRetryCount = other.mRetryCount;
+        mSuccessful = other.mSuccessful;
+    }
+
+    //region Recording
+    static long since(long startNanos) {
+        return (System.nanoTime() - startNanos) / NANOS_PER_MILLI;
+    }
+
+    synchronized void recordDns(long millis) {
+        mDnsMillis = millis;
+    }
+
+    synchronized void recordConnect(long millis) {
+        mConnectMillis = millis;
+    }
+
+    synchronized void recordTimeToFirstByte(long millis) {
+        mTimeToFirstByteMillis = millis;
+    }
+
+    synchronized void recordTransfer(long nanos) {
+        mTransferNanos += nanos;
+    }
+
+    synchronized void recordDecompression(long millis) {
+        mDecompressionMillis = millis;
+    }
+
+    synchronized void recordInstall(long millis) {
+        mInstallMillis = millis;
+    }
+
+    synchronized void recordFirstOpen(long millis) {
+        mFirstOpenMillis = millis;
+    }
+
+    synchronized void recordRetry() {
+        mRetryCount++;
+    }
+
+    /**
+     * Count bytes received, tracking the best rate seen over one second windows.
+     */
+    synchronized void recordBytes(long bytes) {
+        long now = System.nanoTime();
+        if (mWindowStartNanos == 0) mWindowStartNanos = now;
+        mBytesTransferred += bytes;
+        mWindowBytes += bytes;
+        long window = now - mWindowStartNanos;
+        if (window >= PEAK_WINDOW_NANOS) {
+            mPeakBytesPerSecond = Math.max(mPeakBytesPerSecond, mWindowBytes * 1000 * NANOS_PER_MILLI / window);
+            mWindowStartNanos = now;
+            mWindowBytes = 0;
+        }
+    }
+
+    synchronized DownloadMetrics finish(boolean successful) {
+        mSuccessful = successful;
+        mTotalMillis = since(mStartNanos);
+        return new DownloadMetrics(this);
+    }
+    //endregion
+
+    //region Getters
+    public boolean isSuccessful() {
+        return mSuccessful;
+    }
+
+    /**
+     * @return time from the download request until the database was installed and opened
+     */
+    public long getTotalMillis() {
+        return mTotalMillis;
+    }
+
+    public long getDnsMillis() {
+        return mDnsMillis;
+    }
+
+    /**
+     * @return TCP connect and TLS handshake time
+     */
+    public long getConnectMillis() {
+        return mConnectMillis;
+    }
+
+    /**
+     * @return time from sending the request to receiving the response headers
+     */
+    public long getTimeToFirstByteMillis() {
+        return mTimeToFirstByteMillis;
+    }
+
+    /**
+     * @return time spent receiving response bodies; in streaming extraction mode
+     * this includes the decompression overlapping with it
+     */
+    public long getTransferMillis() {
+        return mTransferNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return time spent extracting the downloaded archive
+     */
+    public long getDecompressionMillis() {
+        return mDecompressionMillis;
+    }
+
+    /**
+     * @return time spent checking the new database and swapping it in; in WAL
+     * mode this includes waiting for the readers of the old file
+     */
+    public long getInstallMillis() {
+        return mInstallMillis;
+    }
+
+    /**
+     * @return time to open the installed database for the first time
+     */
+    public long getFirstOpenMillis() {
+        return mFirstOpenMillis;
+    }
+
+    public long getBytesTransferred() {
+        return mBytesTransferred;
+    }
+
+    public long getAverageBytesPerSecond() {
+        return mTransferNanos > 0 ? mBytesTransferred * 1000 * NANOS_PER_MILLI / mTransferNanos : 0;
+    }
+
+    /**
+     * @return best throughput over a one second window, or the average for shorter transfers
+     */
+    public long getPeakBytesPerSecond() {
+        return Math.max(mPeakBytesPerSecond, getAverageBytesPerSecond());
+    }
+
+    public int getRetryCount() {
+        return mRetryCount;
+    }
+    //endregion
+
+    @Override
+    public String toString() {
+        return "DownloadMetrics{" +
+                "successful=" + mSuccessful +
+                ", total=" + mTotalMillis + "ms" +
+                ", dns=" + mDnsMillis + "ms" +
+                ", connect=" + mConnectMillis + "ms" +
+                ", ttfb=" + mTimeToFirstByteMillis + "ms" +
+                ", transfer=" + getTransferMillis() + "ms" +
+                ", decompression=" + mDecompressionMillis + "ms" +
+                ", install=" + mInstallMillis + "ms" +
+                ", firstOpen=" + mFirstOpenMillis + "ms" +
+                ", bytes=" + mBytesTransferred +
+                ", avg=" + getAverageBytesPerSecond() + "B/s" +
+                ", peak=" + getPeakBytesPerSecond() + "B/s" +
+                ", retries=" + mRetryCount +
+                '}';
+    }
+}
@@ -0,0 +1,20 @@
+package se.anwar.online_database;
+
+/**
+ * How hard to push a written database file to storage before it is used,
+ * see {@link SQLiteOnlineHelper#setFsyncPolicy(FsyncPolicy)}.
+ */
+public enum FsyncPolicy {
+    /**
+     * Leave it to the kernel; fastest, a crash right after install may lose the file.
+     */
+    NONE,
+    /**
+     * Sync the file contents ({@code fdatasync}).
+     */
+    DATA,
+    /**
+     * Sync the contents and the file metadata ({@code fsync}).
+     */
+    FULL
+}
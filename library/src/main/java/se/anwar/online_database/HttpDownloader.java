@@ -0,0 +1,387 @@
+package se.anwar.online_database;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * Streams a remote file into a directory, optionally continuing a previous
+ * partial transfer with {@code Range}/{@code If-Range} requests.
+ */
+class HttpDownloader {
+
+    private static final String TAG = "HttpDownloader_Log";
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    interface ProgressCallback {
+        void onProgress(long downloaded, long total);
+    }
+
+    private final File mDirectory;
+    private final File mResumeFile;
+    private boolean mResumeEnabled;
+    private RemoteValidators mValidators;
+    private DownloadMetrics mMetrics;
+    private FsyncPolicy mFsyncPolicy = FsyncPolicy.NONE;
+    private ContentDigest mDigest;
+    private File mRawDestination;
+
+    HttpDownloader(File directory, File resumeFile) {
+        mDirectory = directory;
+        mResumeFile = resumeFile;
+    }
+
+    void setResumeEnabled(boolean resumeEnabled) {
+        mResumeEnabled = resumeEnabled;
+    }
+
+    void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        mFsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Check the downloaded bytes against {@code digest}, computed while they are received.
+     */
+    void setDigest(ContentDigest digest) {
+        mDigest = digest;
+    }
+
+    void setMetrics(DownloadMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Write an uncompressed database straight into {@code file}, a file in the
+     * directory of this downloader, instead of under its served name; see
+     * {@link #isRaw}. Archives are not affected.
+     */
+    void setRawDestination(File file) {
+        mRawDestination = file;
+    }
+
+    /**
+     * @return the validators of the last file served, or null
+     */
+    RemoteValidators getValidators() {
+        return mValidators;
+    }
+
+    /**
+     * Download {@code fileURL} into the directory of this downloader.
+     *
+     * @return the downloaded file, complete
+     * @throws IOException           on network or disk errors; in resume mode the
+     *                               partial file is kept so the next call continues it
+     * @throws SQLiteOnlineException if the server does not serve the file
+     */
+    File download(String fileURL, ProgressCallback callback) throws IOException {
+        ResumeInfo resume = mResumeEnabled ? ResumeInfo.load(mResumeFile) : null;
+        long offset = 0;
+        if (resume != null && fileURL.equals(resume.url) && resume.getValidator() != null) {
+            File partial = new File(mDirectory, resume.fileName);
+            if (partial.exists()) offset = partial.length();
+        }
+
+        HttpURLConnection httpConnection = null;
+        try {
+            httpConnection = openConnection(fileURL);
+            if (offset > 0) {
+                httpConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+                httpConnection.setRequestProperty("If-Range", resume.getValidator());
+            }
+            int responseCode = execute(httpConnection, mMetrics);
+
+            boolean append;
+            if (offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL
+                    && getContentRangeStart(httpConnection) == offset) {
+                append = true;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                append = false;
+                offset = 0;
+            } else if (offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                // a range other than the one asked for, appending it would corrupt the file
+                Log.w(TAG, "download: Content-Range " + httpConnection.getHeaderField("Content-Range")
+                        + " doesn't continue at " + offset + ", starting over");
+                discardPartial(resume);
+                httpConnection.disconnect();
+                httpConnection = null;
+                return download(fileURL, callback);
+            } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+                // our partial file does not match the remote one, start over next time
+                discardPartial(resume);
+                throw new IOException("Partial download rejected by server, HTTP code: " + responseCode);
+            } else {
+                throw new SQLiteOnlineException
+                        ("No file to download. Server replied HTTP code: " + responseCode);
+            }
+
+            mValidators = RemoteValidators.from(fileURL, httpConnection);
+            String disposition = httpConnection.getHeaderField("Content-Disposition");
+            String fileName = append ? resume.fileName : getFileName(fileURL, disposition);
+            long contentLength = getContentLength(httpConnection);
+
+            Log.i(TAG, "Content-Type = " + httpConnection.getContentType());
+            Log.i(TAG, "Content-Disposition = " + disposition);
+            Log.i(TAG, "Content-Length = " + contentLength);
+            Log.i(TAG, "fileName = " + fileName + (append ? " (resuming at " + offset + ")" : ""));
+
+            if (contentLength < 0) {
+                throw new SQLiteOnlineException
+                        ("No file to download. Server replied HTTP code: " + responseCode);
+            }
+            long total = offset + contentLength;
+
+            InputStream inputStream = new BufferedInputStream(httpConnection.getInputStream(),
+                    CopyEngine.NETWORK_BUFFER_SIZE);
+            if (!append && mRawDestination != null && isRaw(httpConnection, inputStream)) {
+                // nothing to extract, the body is the database
+                fileName = mRawDestination.getName();
+                Log.i(TAG, "download: uncompressed database, writing to " + fileName);
+            }
+
+            if (!mDirectory.exists()) {
+                boolean mkdir = mDirectory.mkdir();
+                Log.i(TAG, "download: mkdir " + mkdir);
+            }
+            File file = new File(mDirectory, fileName);
+
+            if (mResumeEnabled && !append) {
+                ResumeInfo info = new ResumeInfo();
+                info.url = fileURL;
+                info.fileName = fileName;
+                info.etag = httpConnection.getHeaderField("ETag");
+                info.lastModified = httpConnection.getHeaderField("Last-Modified");
+                info.length = total;
+                info.save(mResumeFile);
+            }
+
+            if (mDigest != null) {
+                mDigest.reset();
+                if (append) mDigest.update(file, offset);
+            }
+
+            FileOutputStream outputStream = new FileOutputStream(file, append);
+            long downloaded = offset;
+            long transferStart = System.nanoTime();
+            byte[] buffer = CopyEngine.acquire(CopyEngine.NETWORK_BUFFER_SIZE);
+            try {
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                    if (mDigest != null) mDigest.update(buffer, 0, bytesRead);
+                    downloaded += bytesRead;
+                    if (mMetrics != null) mMetrics.recordBytes(bytesRead);
+                    if (callback != null) callback.onProgress(downloaded, total);
+                }
+            } finally {
+                if (mMetrics != null) mMetrics.recordTransfer(System.nanoTime() - transferStart);
+                CopyEngine.release(buffer);
+                Utils.closeQuietly(outputStream);
+                Utils.closeQuietly(inputStream);
+            }
+
+            if (downloaded != total) {
+                throw new IOException("Connection closed after " + downloaded + " of " + total + " bytes");
+            }
+            Utils.deleteQuietly(mResumeFile);
+            if (mDigest != null) {
+                try {
+                    mDigest.verify(fileName);
+                } catch (IOException e) {
+                    Utils.deleteQuietly(file);
+                    throw e;
+                }
+            }
+            Log.i(TAG, "File downloaded");
+            return file;
+        } finally {
+            if (httpConnection != null)
+                httpConnection.disconnect();
+        }
+    }
+
+    private void discardPartial(ResumeInfo resume) {
+        Utils.deleteQuietly(new File(mDirectory, resume.fileName));
+        Utils.deleteQuietly(mResumeFile);
+    }
+
+    /**
+     * Download an archive in one of the {@link Codecs} formats and inflate it into
+     * {@code destination} while the body is still arriving, without writing the
+     * archive itself to disk. Progress is reported on the compressed bytes.
+     * Streamed transfers can not be resumed.
+     */
+    void downloadAndExtract(String fileURL, File destination, ProgressCallback callback) throws IOException {
+        HttpURLConnection httpConnection = null;
+        try {
+            httpConnection = openConnection(fileURL);
+            int responseCode = execute(httpConnection, mMetrics);
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new SQLiteOnlineException
+                        ("No file to download. Server replied HTTP code: " + responseCode);
+            }
+
+            mValidators = RemoteValidators.from(fileURL, httpConnection);
+            String disposition = httpConnection.getHeaderField("Content-Disposition");
+            String fileName = getFileName(fileURL, disposition);
+            long contentLength = getContentLength(httpConnection);
+
+            Log.i(TAG, "Content-Type = " + httpConnection.getContentType());
+            Log.i(TAG, "Content-Length = " + contentLength);
+            Log.i(TAG, "fileName = " + fileName + " (streaming into " + destination.getName() + ")");
+
+            if (contentLength < 0) {
+                throw new SQLiteOnlineException
+                        ("No file to download. Server replied HTTP code: " + responseCode);
+            }
+
+            File dir = destination.getParentFile();
+            if (dir != null && !dir.exists()) {
+                boolean mkdir = dir.mkdir();
+                Log.i(TAG, "downloadAndExtract: mkdir " + mkdir);
+            }
+
+            CountingInputStream counter = new CountingInputStream(
+                    httpConnection.getInputStream(), contentLength, callback);
+            counter.setMetrics(mMetrics);
+            counter.setDigest(mDigest);
+            if (mDigest != null) mDigest.reset();
+            long transferStart = System.nanoTime();
+            try {
+                InputStream body = new BufferedInputStream(counter, CopyEngine.INFLATE_BUFFER_SIZE);
+                InputStream extracted = isRaw(httpConnection, body) ? body : Codecs.open(body, fileName);
+                if (extracted == null) {
+                    throw new SQLiteOnlineException("Can't stream " + fileName + ", expected one of "
+                            + Codecs.getExtensions());
+                }
+                FileOutputStream outputStream = new FileOutputStream(destination);
+                try {
+                    CopyEngine.copy(extracted, outputStream, CopyEngine.INFLATE_BUFFER_SIZE);
+                    CopyEngine.sync(outputStream, mFsyncPolicy);
+                } finally {
+                    outputStream.close();
+                }
+                // consume what is left of the archive (zip central directory, gzip trailer, ...)
+                CopyEngine.drain(counter);
+            } finally {
+                if (mMetrics != null) mMetrics.recordTransfer(System.nanoTime() - transferStart);
+                Utils.closeQuietly(counter);
+            }
+
+            if (counter.getCount() != contentLength) {
+                throw new IOException("Connection closed after " + counter.getCount() + " of " + contentLength + " bytes");
+            }
+            if (mDigest != null) mDigest.verify(fileName);
+            Log.i(TAG, "File downloaded and extracted");
+        } finally {
+            if (httpConnection != null)
+                httpConnection.disconnect();
+        }
+    }
+
+    static HttpURLConnection openConnection(String fileURL) throws IOException {
+        URL url = new URL(fileURL);
+        HttpURLConnection httpConnection = (HttpURLConnection) url.openConnection();
+        if (httpConnection instanceof HttpsURLConnection
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                ((HttpsURLConnection) httpConnection).setSSLSocketFactory(new TLSSocketFactory());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unable to enable TLS", e);
+            }
+        }
+        httpConnection.setConnectTimeout(CONNECT_TIMEOUT);
+        httpConnection.setReadTimeout(READ_TIMEOUT);
+        httpConnection.addRequestProperty("Accept-Encoding", "identity");
+        return httpConnection;
+    }
+
+    /**
+     * Send the request of {@code httpConnection} and wait for the response headers,
+     * timing name resolution, connection setup and time to first byte.
+     *
+     * @return the response code
+     */
+    static int execute(HttpURLConnection httpConnection, DownloadMetrics metrics) throws IOException {
+        if (metrics == null) return httpConnection.getResponseCode();
+
+        long start = System.nanoTime();
+        // resolve up front so the lookup is measured on its own; connect() reuses the cached result
+        InetAddress.getAllByName(httpConnection.getURL().getHost());
+        metrics.recordDns(DownloadMetrics.since(start));
+
+        start = System.nanoTime();
+        httpConnection.connect();
+        metrics.recordConnect(DownloadMetrics.since(start));
+
+        start = System.nanoTime();
+        int responseCode = httpConnection.getResponseCode();
+        metrics.recordTimeToFirstByte(DownloadMetrics.since(start));
+        return responseCode;
+    }
+
+    /**
+     * Raw mode: the server either labels the body as a SQLite database or it
+     * starts with the SQLite header, so it's stored as it arrives, without an
+     * archive to extract.
+     */
+    static boolean isRaw(HttpURLConnection httpConnection, InputStream body) throws IOException {
+        return Codecs.isDatabaseType(httpConnection.getContentType()) || Codecs.isDatabase(body);
+    }
+
+    static String getFileName(String fileURL, String disposition) {
+        String fileName = "";
+        if (disposition != null) {
+            // extracts file name from header field
+            int index = disposition.indexOf("filename=");
+            if (index > 0) {
+                fileName = disposition.substring(index + 10,
+                        disposition.length() - 1);
+            }
+        } else {
+            // extracts file name from URL
+            fileName = fileURL.substring(fileURL.lastIndexOf("/") + 1);
+        }
+        return fileName;
+    }
+
+    static long getContentLength(HttpURLConnection httpConnection) {
+        String value = httpConnection.getHeaderField("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the first byte position of a {@code Content-Range: bytes a-b/c} header, or -1
+     */
+    static long getContentRangeStart(HttpURLConnection httpConnection) {
+        String range = httpConnection.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) return -1;
+        int dash = range.indexOf('-');
+        if (dash < 0) return -1;
+        try {
+            return Long.parseLong(range.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
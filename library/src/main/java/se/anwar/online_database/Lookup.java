@@ -0,0 +1,148 @@
+package se.anwar.online_database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parameterized read query with typed bind arguments, created with
+ * {@link SQLiteOnlineHelper#lookup}. Single value lookups compile their
+ * statement through the connection's prepared statement cache (see
+ * {@link SQLiteOnlineHelper#setStatementCacheSize}), so repeating the same SQL
+ * with different arguments does not compile it again:
+ * <pre>
+ * String title = helper.lookup("SELECT title FROM book WHERE _id = ?")
+ *         .bind(id)
+ *         .queryForString();
+ * </pre>
+ * A lookup collects arguments and is not meant to be shared between threads.
+ */
+public final class Lookup {
+
+    private final SQLiteOnlineHelper mHelper;
+    private final String mSql;
+    private final List<Object> mArgs = new ArrayList<>();
+
+    Lookup(SQLiteOnlineHelper helper, String sql) {
+        if (sql == null) throw new IllegalArgumentException("sql cannot be null");
+        mHelper = helper;
+        mSql = sql;
+    }
+
+    //region Bind
+    public Lookup bind(long value) {
+        mArgs.add(value);
+        return this;
+    }
+
+    public Lookup bind(double value) {
+        mArgs.add(value);
+        return this;
+    }
+
+    /**
+     * @param value to bind, null binds NULL
+     */
+    public Lookup bind(String value) {
+        mArgs.add(value);
+        return this;
+    }
+
+    /**
+     * @param value to bind, null binds NULL; blobs can't be bound for {@link #query}
+     */
+    public Lookup bind(byte[] value) {
+        mArgs.add(value);
+        return this;
+    }
+
+    public Lookup bindNull() {
+        mArgs.add(null);
+        return this;
+    }
+
+    /**
+     * Forget the bound arguments to run the lookup again with new ones.
+     */
+    public Lookup clearBindings() {
+        mArgs.clear();
+        return this;
+    }
+    //endregion
+
+    //region Query
+
+    /**
+     * @return the first column of the first row
+     * @throws SQLiteDoneException if there is no row
+     */
+    public long queryForLong() {
+        SQLiteDatabase db = mHelper.acquireReadableDatabase();
+        try {
+            SQLiteStatement statement = db.compileStatement(mSql);
+            try {
+                bindTo(statement);
+                return statement.simpleQueryForLong();
+            } finally {
+                statement.close();
+            }
+        } finally {
+            mHelper.releaseDatabase(db);
+        }
+    }
+
+    /**
+     * @return the first column of the first row, possibly null
+     * @throws SQLiteDoneException if there is no row
+     */
+    public String queryForString() {
+        SQLiteDatabase db = mHelper.acquireReadableDatabase();
+        try {
+            SQLiteStatement statement = db.compileStatement(mSql);
+            try {
+                bindTo(statement);
+                return statement.simpleQueryForString();
+            } finally {
+                statement.close();
+            }
+        } finally {
+            mHelper.releaseDatabase(db);
+        }
+    }
+
+    /**
+     * Run the query for all rows, through the result cache if one is set
+     * (see {@link SQLiteOnlineHelper#cachedQuery}). The connection keeps the
+     * compiled statement in its own cache, keyed by the SQL text; numbers are
+     * bound as text and compared using the column's affinity.
+     */
+    public Cursor query() {
+        String[] args = new String[mArgs.size()];
+        for (int i = 0; i < args.length; i++) {
+            Object arg = mArgs.get(i);
+            if (arg == null || arg instanceof byte[]) {
+                throw new IllegalArgumentException("query() can't bind NULL or blob arguments, at index " + i);
+            }
+            args[i] = arg.toString();
+        }
+        return mHelper.cachedQuery(mSql, args);
+    }
+    //endregion
+
+    private void bindTo(SQLiteStatement statement) {
+        statement.clearBindings();
+        for (int i = 0; i < mArgs.size(); i++) {
+            Object arg = mArgs.get(i);
+            int index = i + 1;
+            if (arg == null) statement.bindNull(index);
+            else if (arg instanceof Long) statement.bindLong(index, (Long) arg);
+            else if (arg instanceof Double) statement.bindDouble(index, (Double) arg);
+            else if (arg instanceof String) statement.bindString(index, (String) arg);
+            else statement.bindBlob(index, (byte[]) arg);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package se.anwar.online_database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Connection settings applied every time {@link SQLiteOnlineHelper} opens the
+ * database. Settings left unset keep SQLite's defaults.
+ * <p>
+ * {@code mmap_size}, {@code cache_size}, {@code temp_store} and
+ * {@code query_only} are per connection in SQLite, and are set on each
+ * connection the helper opens itself: the read/write connection, the
+ * read-only fallback and the pooled read connections of
+ * {@link SQLiteOnlineHelper#setConcurrentReads}. In write-ahead logging mode
+ * Android also opens extra read-only connections behind the read/write
+ * {@link SQLiteDatabase}, to run its queries in parallel. The framework offers
+ * no hook for those ({@code onConfigure} only sees the primary connection), so
+ * they keep SQLite's defaults. To have every read use these settings, read
+ * through {@link SQLiteOnlineHelper#getReadableDatabase} with concurrent reads
+ * enabled rather than through {@link SQLiteOnlineHelper#getWritableDatabase}.
+ * <pre>
+ * OpenOptions options = new OpenOptions.Builder()
+ *         .setMmapSize(64 * 1024 * 1024)
+ *         .setCacheSize(-8 * 1024)
+ *         .setTempStore(OpenOptions.TempStore.MEMORY)
+ *         .build();
+ * </pre>
+ */
+public final class OpenOptions {
+
+    private static final String TAG = "OpenOptions_Log";
+
+    public static final OpenOptions DEFAULT = new Builder().build();
+
+    public enum TempStore {
+        DEFAULT, FILE, MEMORY
+    }
+
+    public enum JournalMode {
+        DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF
+    }
+
+    public enum LockingMode {
+        NORMAL, EXCLUSIVE
+    }
+
+    private final long mMmapSize;
+    private final Integer mCacheSize;
+    private final TempStore mTempStore;
+    private final JournalMode mJournalMode;
+    private final LockingMode mLockingMode;
+    private final boolean mQueryOnly;
+
+    private OpenOptions(Builder builder) {
+        mMmapSize = builder.mMmapSize;
+        mCacheSize = builder.mCacheSize;
+        mTempStore = builder.mTempStore;
+        mJournalMode = builder.mJournalMode;
+        mLockingMode = builder.mLockingMode;
+        mQueryOnly = builder.mQueryOnly;
+    }
+
+    JournalMode getJournalMode() {
+        return mJournalMode;
+    }
+
+    LockingMode getLockingMode() {
+        return mLockingMode;
+    }
+
+    boolean isQueryOnly() {
+        return mQueryOnly;
+    }
+
+    /**
+     * Apply the per-connection settings to a connection the helper opened.
+     */
+    void applyTo(SQLiteDatabase db) {
+        if (mMmapSize >= 0) pragma(db, "mmap_size=" + mMmapSize);
+        if (mCacheSize != null) pragma(db, "cache_size=" + mCacheSize);
+        if (mTempStore != null) pragma(db, "temp_store=" + mTempStore.name());
+    }
+
+    /**
+     * Apply the settings that only make sense on the read/write connection,
+     * before the version check.
+     */
+    void applyToMain(SQLiteDatabase db) {
+        if (mLockingMode != null) pragma(db, "locking_mode=" + mLockingMode.name());
+        if (mJournalMode == JournalMode.WAL) {
+            // let the framework know, it sizes its own connection pool on it
+            if (!db.enableWriteAheadLogging()) Log.w(TAG, "could not enable write-ahead logging");
+        } else if (mJournalMode != null) {
+            pragma(db, "journal_mode=" + mJournalMode.name());
+        }
+    }
+
+    /**
+     * Run a PRAGMA that may return a row; {@code execSQL} refuses those.
+     */
+    static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public static final class Builder {
+        private long mMmapSize = -1;
+        private Integer mCacheSize;
+        private TempStore mTempStore;
+        private JournalMode mJournalMode;
+        private LockingMode mLockingMode;
+        private boolean mQueryOnly = false;
+
+        /**
+         * Read the database through a memory map of up to {@code bytes}
+         * ({@code PRAGMA mmap_size}), 0 to turn it off. Per connection, see
+         * the class documentation.
+         */
+        public Builder setMmapSize(long bytes) {
+            if (bytes < 0) throw new IllegalArgumentException("mmap size must be >= 0, was " + bytes);
+            mMmapSize = bytes;
+            return this;
+        }
+
+        /**
+         * Page cache per connection ({@code PRAGMA cache_size}): a number of
+         * pages if positive, or a size in KiB if negative. See the class
+         * documentation for the connections it applies to.
+         */
+        public Builder setCacheSize(int cacheSize) {
+            mCacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * Where temporary tables and indices (sorts, {@code DISTINCT}) are kept.
+         * Per connection, see the class documentation.
+         */
+        public Builder setTempStore(TempStore tempStore) {
+            mTempStore = tempStore;
+            return this;
+        }
+
+        /**
+         * Journal mode of the read/write connection.
+         * {@link SQLiteOnlineHelper#setConcurrentReads} always uses {@link JournalMode#WAL}.
+         * Android turns WAL off with attached databases, so it can't be set on
+         * the main helper of a {@link ShardedDatabase}.
+         */
+        public Builder setJournalMode(JournalMode journalMode) {
+            mJournalMode = journalMode;
+            return this;
+        }
+
+        /**
+         * Locking mode of the read/write connection. {@link LockingMode#EXCLUSIVE}
+         * keeps the file locked and shuts out other connections, so it can't
+         * be combined with {@link SQLiteOnlineHelper#setConcurrentReads}.
+         */
+        public Builder setLockingMode(LockingMode lockingMode) {
+            mLockingMode = lockingMode;
+            return this;
+        }
+
+        /**
+         * Refuse writes through {@link SQLiteOnlineHelper#getWritableDatabase}
+         * once the database is installed and upgraded ({@code PRAGMA query_only},
+         * Android 5.0+). Set on the read/write connection; the other connections
+         * are opened read-only anyway. Changesets can't be applied in this mode.
+         */
+        public Builder setQueryOnly(boolean queryOnly) {
+            mQueryOnly = queryOnly;
+            return this;
+        }
+
+        public OpenOptions build() {
+            return new OpenOptions(this);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package se.anwar.online_database;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a table in pages of a fixed size, ordered by a unique key column.
+ * Each page continues after the last key of the previous one
+ * ({@code WHERE key > ? ORDER BY key LIMIT n}), so later pages cost the same
+ * as the first and only one page is in memory at a time. The connection stays
+ * open between pages, and pages go through the query result cache if one is
+ * set. Create with {@link SQLiteOnlineHelper#pagedQuery}.
+ * <p>
+ * The key must be unique and not null; integer, real and text keys are
+ * supported, and compared as the type the previous page returned. The key is
+ * appended after the requested columns, so the column indexes seen by the
+ * {@link RowMapper} are those of {@code columns}.
+ */
+public final class PagedQuery<T> implements Iterable<T> {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final String DEFAULT_KEY_COLUMN = "rowid";
+
+    private final SQLiteOnlineHelper mHelper;
+    private final String mSql;
+    private final String mNextSql;
+    private final String mNextIntegerSql;
+    private final String mNextRealSql;
+    private final String[] mSelectionArgs;
+    private final int mKeyIndex;
+    private final int mPageSize;
+    private final RowMapper<T> mMapper;
+
+    private Object mLastKey;
+    private boolean mExhausted = false;
+
+    PagedQuery(SQLiteOnlineHelper helper, String table, String[] columns, String selection,
+               String[] selectionArgs, String keyColumn, int pageSize, RowMapper<T> mapper) {
+        if (table == null) throw new IllegalArgumentException("table cannot be null");
+        if (mapper == null) throw new IllegalArgumentException("mapper cannot be null");
+        if (pageSize < 1) throw new IllegalArgumentException("pageSize must be >= 1, was " + pageSize);
+        if (keyColumn == null) keyColumn = DEFAULT_KEY_COLUMN;
+
+        mHelper = helper;
+        mSelectionArgs = selectionArgs != null ? selectionArgs : new String[0];
+        mPageSize = pageSize;
+        mMapper = mapper;
+
+        StringBuilder select = new StringBuilder("SELECT ");
+        if (columns == null || columns.length == 0) {
+            select.append('*');
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) select.append(", ");
+                select.append(columns[i]);
+            }
+        }
+        select.append(", ").append(keyColumn).append(" FROM ").append(table);
+        String where = selection != null ? " WHERE (" + selection + ")" : null;
+        String order = " ORDER BY " + keyColumn + " LIMIT " + pageSize;
+        mSql = select + (where != null ? where : "") + order;
+        String after = select + (where != null ? where + " AND " : " WHERE ") + keyColumn + " > ";
+        // rawQuery binds every argument as text, which sorts after all numbers where the
+        // key has no numeric affinity (rowid of a view, expressions); cast it back
+        mNextSql = after + "?" + order;
+        mNextIntegerSql = after + "CAST(? AS INTEGER)" + order;
+        mNextRealSql = after + "CAST(? AS REAL)" + order;
+        mKeyIndex = columns == null || columns.length == 0 ? -1 : columns.length;
+    }
+
+    /**
+     * @return true until a page shorter than the page size was read
+     */
+    public synchronized boolean hasMore() {
+        return !mExhausted;
+    }
+
+    /**
+     * Read the page after the last one returned.
+     *
+     * @return the mapped rows, empty once the end is reached
+     */
+    public synchronized List<T> nextPage() {
+        if (mExhausted) return Collections.emptyList();
+        List<T> page = new ArrayList<>(mPageSize);
+        mLastKey = readPage(mLastKey, page);
+        if (page.size() < mPageSize) mExhausted = true;
+        return page;
+    }
+
+    /**
+     * Start over from the first page, e.g. after the database was replaced.
+     */
+    public synchronized void reset() {
+        mLastKey = null;
+        mExhausted = false;
+    }
+
+    /**
+     * @return an iterator over all rows, loading one page at a time; independent
+     * of {@link #nextPage} and of other iterators
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private final List<T> mPage = new ArrayList<>(mPageSize);
+            private int mIndex = 0;
+            private Object mKey = null;
+            private boolean mLast = false;
+
+            @Override
+            public boolean hasNext() {
+                if (mIndex < mPage.size()) return true;
+                if (mLast) return false;
+                mPage.clear();
+                mIndex = 0;
+                mKey = readPage(mKey, mPage);
+                if (mPage.size() < mPageSize) mLast = true;
+                return !mPage.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return mPage.get(mIndex++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Map the page after {@code afterKey} (the first page if null) into {@code out}.
+     *
+     * @return the key of the last row read, {@code afterKey} if none: a Long,
+     * Double or String depending on the type of the column
+     */
+    private Object readPage(Object afterKey, List<T> out) {
+        String sql = mSql;
+        String[] args = mSelectionArgs;
+        if (afterKey != null) {
+            sql = afterKey instanceof Long ? mNextIntegerSql : afterKey instanceof Double ? mNextRealSql : mNextSql;
+            args = new String[mSelectionArgs.length + 1];
+            System.arraycopy(mSelectionArgs, 0, args, 0, mSelectionArgs.length);
+            args[mSelectionArgs.length] = afterKey.toString();
+        }
+        Cursor cursor = mHelper.cachedQuery(sql, args);
+        try {
+            int keyIndex = mKeyIndex >= 0 ? mKeyIndex : cursor.getColumnCount() - 1;
+            Object key = afterKey;
+            while (cursor.moveToNext()) {
+                out.add(mMapper.map(cursor));
+                key = readKey(cursor, keyIndex);
+            }
+            return key;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Object readKey(Cursor cursor, int index) {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(index);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(index);
+            default:
+                return cursor.getString(index);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package se.anwar.online_database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * The partitions of a {@link PartitionedDatabase}. The format is plain text,
+ * one partition per line:
+ * <pre>
+ * # name version url tables...
+ * europe 3 https://example.com/europe.db.zst book_europe author_europe
+ * asia 1 https://example.com/asia.db.zst book_asia author_asia
+ * </pre>
+ * The name doubles as the schema name the partition is attached under, the
+ * tables are the ones it holds.
+ */
+class PartitionManifest {
+
+    final List<Partition> partitions = new ArrayList<>();
+
+    static class Partition {
+        String name;
+        int version;
+        String url;
+        final List<String> tables = new ArrayList<>();
+    }
+
+    static PartitionManifest parse(InputStream in) throws IOException {
+        PartitionManifest manifest = new PartitionManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\\s+");
+            if (fields.length < 4) {
+                throw new SQLiteOnlineException("Partition manifest line needs a name, version, url and tables: " + line);
+            }
+            Partition partition = new Partition();
+            partition.name = fields[0];
+            try {
+                partition.version = Integer.parseInt(fields[1]);
+            } catch (NumberFormatException e) {
+                throw new SQLiteOnlineException("Invalid version of partition " + fields[0] + ": " + fields[1]);
+            }
+            partition.url = fields[2];
+            for (int i = 3; i < fields.length; i++) partition.tables.add(fields[i].toLowerCase());
+            manifest.partitions.add(partition);
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the partition holding {@code table}, or null if it's in the core database
+     */
+    Partition forTable(String table) {
+        String name = table.toLowerCase();
+        int dot = name.indexOf('.');
+        if (dot >= 0) {
+            // already qualified with the schema name
+            Partition partition = get(name.substring(0, dot));
+            if (partition != null) return partition;
+            name = name.substring(dot + 1);
+        }
+        for (Partition partition : partitions) {
+            if (partition.tables.contains(name)) return partition;
+        }
+        return null;
+    }
+
+    Partition get(String name) {
+        for (Partition partition : partitions) {
+            if (partition.name.equalsIgnoreCase(name)) return partition;
+        }
+        return null;
+    }
+}
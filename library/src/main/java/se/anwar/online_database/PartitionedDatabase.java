@@ -0,0 +1,331 @@
+package se.anwar.online_database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import se.anwar.online_database.SQLiteOnlineHelper.OnFileDownloadListener;
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * A small core database installed up front, plus partitions listed in a
+ * {@link PartitionManifest} that are fetched the first time a table in them
+ * is needed. Partitions nobody asks for are never downloaded.
+ * <pre>
+ * PartitionedDatabase catalog = new PartitionedDatabase(context, core, MANIFEST_URL);
+ * catalog.requireTable("book_europe", new OnPartitionReadyListener() {
+ *     public void onPartitionReady(SQLiteDatabase db) {
+ *         db.rawQuery("SELECT title FROM book_europe", null); ...
+ *     }
+ *     public void onPartitionFailed(Exception e) { ... }
+ * });
+ * </pre>
+ * Installed partitions are attached to the core database under their name
+ * (see {@link ShardedDatabase}), so queries can use their tables unqualified.
+ * The manifest is fetched once per instance and kept next to the core
+ * database for offline use; a partition with a newer version in it is
+ * downloaded again on its next first access after a restart.
+ */
+public class PartitionedDatabase {
+
+    private static final String TAG = "PartitionedDatabase_Log";
+    private static final String MANIFEST_EXTENSION = ".partitions";
+
+    private final Context mContext;
+    private final SQLiteOnlineHelper mCore;
+    private final ShardedDatabase mShards;
+    private final String mManifestURL;
+    private final File mManifestFile;
+    private final Map<String, SQLiteOnlineHelper> mPartitions = new HashMap<>();
+    private PartitionManifest mManifest;
+    private boolean mManifestFetched = false;
+
+    /**
+     * Attaches the partitions installed earlier, reading the stored manifest.
+     *
+     * @param core        the database installed before anything else, e.g. with
+     *                    {@link SQLiteOnlineHelper#downloadDatabase}
+     * @param manifestURL the {@link PartitionManifest} listing the partitions
+     */
+    public PartitionedDatabase(Context context, SQLiteOnlineHelper core, String manifestURL) {
+        if (core == null) throw new IllegalArgumentException("core cannot be null");
+        if (manifestURL == null) throw new IllegalArgumentException("manifestURL cannot be null");
+        mContext = context;
+        mCore = core;
+        mShards = new ShardedDatabase(core);
+        mManifestURL = manifestURL;
+        mManifestFile = new File(core.getDatabaseFile().getPath() + MANIFEST_EXTENSION);
+
+        mManifest = readStoredManifest();
+        if (mManifest != null) {
+            for (PartitionManifest.Partition partition : mManifest.partitions) {
+                if (getDatabaseFile(partition).exists()) getPartition(partition);
+            }
+        }
+    }
+
+    /**
+     * @return the core database with every installed partition attached
+     */
+    public SQLiteDatabase getReadableDatabase() {
+        return mCore.getReadableDatabase();
+    }
+
+    /**
+     * Make sure the partition holding {@code table} is installed, downloading
+     * it if needed. Tables that aren't in the manifest are taken to be in the
+     * core database and are ready right away.
+     *
+     * @param table    a table name, optionally qualified with the partition name
+     * @param listener told on the callback executor of the core helper; may be null
+     * @return completes with the database once the table can be queried
+     */
+    public Future<SQLiteDatabase> requireTable(final String table, OnPartitionReadyListener listener) {
+        if (table == null) throw new IllegalArgumentException("table cannot be null");
+        final PartitionFuture future = new PartitionFuture(listener);
+        DownloadDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PartitionManifest.Partition partition = getManifest().forTable(table);
+                    if (partition == null) {
+                        future.set(mCore.getReadableDatabase());
+                        return;
+                    }
+                    getPartition(partition).downloadIfOutdated(partition.url, new PartitionListener(future));
+                } catch (Exception e) {
+                    Log.w(TAG, "requireTable: " + table + " failed", e);
+                    future.setException(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return true if {@code table} can be queried without a download, false if
+     * it's in a partition that isn't installed or the manifest isn't known yet
+     */
+    public synchronized boolean isTableAvailable(String table) {
+        if (mManifest == null) return false;
+        PartitionManifest.Partition partition = mManifest.forTable(table);
+        return partition == null || getDatabaseFile(partition).exists();
+    }
+
+    private File getDatabaseFile(PartitionManifest.Partition partition) {
+        return new File(mManifestFile.getParent(), partition.name + ".db");
+    }
+
+    private synchronized SQLiteOnlineHelper getPartition(PartitionManifest.Partition partition) {
+        SQLiteOnlineHelper helper = mPartitions.get(partition.name);
+        if (helper == null) {
+            helper = new SQLiteOnlineHelper(mContext, partition.name + ".db", mManifestFile.getParent(),
+                    null, partition.version);
+            mShards.addShard(partition.name, helper, partition.url);
+            mPartitions.put(partition.name, helper);
+        }
+        return helper;
+    }
+
+    /**
+     * The manifest from the server, fetched once; the stored copy if the server
+     * can't be reached.
+     */
+    private PartitionManifest getManifest() throws IOException {
+        synchronized (this) {
+            if (mManifestFetched) return mManifest;
+        }
+        // not under the lock, isTableAvailable must not wait for the network
+        byte[] bytes;
+        try {
+            bytes = fetchManifest();
+        } catch (Exception e) {
+            synchronized (this) {
+                if (mManifest == null) throw e;
+                Log.w(TAG, "getManifest: using the stored manifest", e);
+                return mManifest;
+            }
+        }
+        PartitionManifest manifest = PartitionManifest.parse(new ByteArrayInputStream(bytes));
+        synchronized (this) {
+            FileOutputStream out = new FileOutputStream(mManifestFile);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            mManifest = manifest;
+            mManifestFetched = true;
+            return manifest;
+        }
+    }
+
+    private byte[] fetchManifest() throws IOException {
+        HttpURLConnection httpConnection = HttpDownloader.openConnection(mManifestURL);
+        try {
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new SQLiteOnlineException
+                        ("No partition manifest. Server replied HTTP code: " + responseCode);
+            }
+            InputStream in = httpConnection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                CopyEngine.copy(in, out, CopyEngine.NETWORK_BUFFER_SIZE);
+            } finally {
+                Utils.closeQuietly(in);
+            }
+            return out.toByteArray();
+        } finally {
+            httpConnection.disconnect();
+        }
+    }
+
+    private PartitionManifest readStoredManifest() {
+        if (!mManifestFile.exists()) return null;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(mManifestFile);
+            return PartitionManifest.parse(in);
+        } catch (IOException e) {
+            Log.w(TAG, "readStoredManifest: unreadable " + mManifestFile, e);
+            return null;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    public interface OnPartitionReadyListener {
+        void onPartitionReady(SQLiteDatabase db);
+
+        void onPartitionFailed(Exception e);
+    }
+
+    /**
+     * Completes a {@link PartitionFuture} once a partition download finished.
+     */
+    private class PartitionListener implements OnFileDownloadListener {
+        private final PartitionFuture mFuture;
+
+        PartitionListener(PartitionFuture future) {
+            mFuture = future;
+        }
+
+        @Override
+        public void onDownloadStart() {
+        }
+
+        @Override
+        public void onDownloadProgress(int progress) {
+        }
+
+        @Override
+        public void onDownloadFailed(Exception e) {
+            mFuture.setException(e);
+        }
+
+        @Override
+        public void onDownloadSuccess() {
+            // called on the callback executor, reopen with the partition attached off it
+            DownloadDispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mFuture.set(mCore.getReadableDatabase());
+                    } catch (Exception e) {
+                        mFuture.setException(e);
+                    }
+                }
+            });
+        }
+    }
+
+    private class PartitionFuture implements Future<SQLiteDatabase> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final OnPartitionReadyListener mListener;
+        private SQLiteDatabase mDatabase;
+        private Exception mError;
+
+        PartitionFuture(OnPartitionReadyListener listener) {
+            mListener = listener;
+        }
+
+        void set(final SQLiteDatabase db) {
+            synchronized (this) {
+                if (isDone()) return;
+                mDatabase = db;
+                mDone.countDown();
+            }
+            mCore.postCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mListener != null) mListener.onPartitionReady(db);
+                }
+            });
+        }
+
+        void setException(final Exception e) {
+            synchronized (this) {
+                if (isDone()) return;
+                mError = e;
+                mDone.countDown();
+            }
+            mCore.postCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mListener != null) mListener.onPartitionFailed(e);
+                }
+            });
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // other callers may be waiting for the same partition
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public SQLiteDatabase get() throws InterruptedException, ExecutionException {
+            mDone.await();
+            return result();
+        }
+
+        @Override
+        public SQLiteDatabase get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!mDone.await(timeout, unit)) throw new TimeoutException();
+            return result();
+        }
+
+        private synchronized SQLiteDatabase result() throws ExecutionException {
+            if (mError != null) throw new ExecutionException(mError);
+            return mDatabase;
+        }
+    }
+}
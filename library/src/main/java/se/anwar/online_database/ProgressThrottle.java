@@ -0,0 +1,32 @@
+package se.anwar.online_database;
+
+import android.os.SystemClock;
+
+/**
+ * Turns byte counts into percentages and lets an event through only when the
+ * percentage changed and the minimum interval since the last event has passed.
+ * The first and the final (100%) event are never dropped.
+ */
+class ProgressThrottle {
+
+    private final long mIntervalMillis;
+    private int mLastProgress = -1;
+    private long mLastTime;
+
+    ProgressThrottle(long intervalMillis) {
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * @return the percentage to report, or -1 if this update should be dropped
+     */
+    synchronized int update(long done, long total) {
+        int progress = total > 0 ? (int) (done * 100 / total) : 0;
+        if (progress == mLastProgress) return -1;
+        long now = SystemClock.elapsedRealtime();
+        if (mLastProgress >= 0 && progress < 100 && now - mLastTime < mIntervalMillis) return -1;
+        mLastProgress = progress;
+        mLastTime = now;
+        return progress;
+    }
+}
@@ -0,0 +1,122 @@
+package se.anwar.online_database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+/**
+ * Results of read queries kept in memory, keyed by SQL text and bind
+ * arguments, evicted least recently used first once their estimated size
+ * exceeds the budget. Hits are returned as fresh {@link MatrixCursor}s.
+ */
+class QueryCache {
+
+    private static final int ROW_OVERHEAD = 16;
+    private static final int CELL_OVERHEAD = 16;
+
+    private final LruCache<String, Result> mCache;
+    private int mGeneration = 0;
+
+    QueryCache(int maxBytes) {
+        mCache = new LruCache<String, Result>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Result value) {
+                return value.mSize;
+            }
+        };
+    }
+
+    /**
+     * @return a cursor over the cached result, or null on a miss
+     */
+    Cursor get(String sql, String[] args) {
+        Result result = mCache.get(key(sql, args));
+        return result != null ? result.toCursor() : null;
+    }
+
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Read {@code cursor} to the end and cache it, unless the cache was
+     * invalidated since {@code generation} was taken.
+     *
+     * @return a cursor over the result, {@code cursor} itself is left to the caller to close
+     */
+    Cursor put(int generation, String sql, String[] args, Cursor cursor) {
+        Result result = new Result(cursor);
+        synchronized (this) {
+            if (generation == mGeneration && result.mSize <= mCache.maxSize()) {
+                mCache.put(key(sql, args), result);
+            }
+        }
+        return result.toCursor();
+    }
+
+    /**
+     * Drop every entry, including those of queries still running.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    private static String key(String sql, String[] args) {
+        if (args == null || args.length == 0) return sql;
+        StringBuilder key = new StringBuilder(sql);
+        for (String arg : args) key.append('\u0000').append(arg);
+        return key.toString();
+    }
+
+    private static class Result {
+        private final String[] mColumns;
+        private final Object[][] mRows;
+        private final int mSize;
+
+        Result(Cursor cursor) {
+            mColumns = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+            int size = 0;
+            int row = 0;
+            while (row < mRows.length && cursor.moveToNext()) {
+                Object[] values = new Object[mColumns.length];
+                for (int i = 0; i < values.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String text = cursor.getString(i);
+                            values[i] = text;
+                            size += text.length() * 2;
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(i);
+                            values[i] = blob;
+                            size += blob.length;
+                            break;
+                        default:
+                            values[i] = null;
+                            break;
+                    }
+                    size += CELL_OVERHEAD;
+                }
+                mRows[row++] = values;
+                size += ROW_OVERHEAD;
+            }
+            mSize = Math.max(1, size);
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumns, mRows.length);
+            for (Object[] row : mRows) {
+                if (row != null) cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
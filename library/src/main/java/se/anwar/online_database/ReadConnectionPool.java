@@ -0,0 +1,65 @@
+package se.anwar.online_database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed set of read-only connections to a database in WAL mode, handed out
+ * round robin so queries from different threads run on different connections
+ * instead of queueing on one. Connections are opened on first use and
+ * reopened if a caller closed them. Closing the pool retires them, see
+ * {@link DatabaseReferences}.
+ */
+class ReadConnectionPool {
+
+    interface Configurator {
+        void configure(SQLiteDatabase db);
+    }
+
+    private final String mPath;
+    private final SQLiteDatabase.CursorFactory mFactory;
+    private final Configurator mConfigurator;
+    private final AtomicReferenceArray<SQLiteDatabase> mConnections;
+    private final AtomicInteger mNext = new AtomicInteger();
+    private boolean mClosed = false;
+
+    ReadConnectionPool(String path, SQLiteDatabase.CursorFactory factory, int size, Configurator configurator) {
+        mPath = path;
+        mFactory = factory;
+        mConfigurator = configurator;
+        mConnections = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @return a read-only connection, or null once the pool is closed
+     */
+    SQLiteDatabase acquire() {
+        int slot = (mNext.getAndIncrement() & Integer.MAX_VALUE) % mConnections.length();
+        SQLiteDatabase db = mConnections.get(slot);
+        if (db != null && db.isOpen()) return db;
+        synchronized (this) {
+            if (mClosed) return null;
+            db = mConnections.get(slot);
+            if (db == null || !db.isOpen()) {
+                db = SQLiteDatabase.openDatabase(mPath, mFactory, SQLiteDatabase.OPEN_READONLY);
+                mConfigurator.configure(db);
+                mConnections.set(slot, db);
+            }
+            return db;
+        }
+    }
+
+    /**
+     * Stop handing out connections; each is closed once {@code references} has
+     * no user left for it.
+     */
+    synchronized void close(DatabaseReferences references) {
+        mClosed = true;
+        for (int i = 0; i < mConnections.length(); i++) {
+            SQLiteDatabase db = mConnections.getAndSet(i, null);
+            if (db != null) references.retire(db);
+        }
+    }
+}
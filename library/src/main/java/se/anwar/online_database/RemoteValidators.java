@@ -0,0 +1,107 @@
+package se.anwar.online_database;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+
+/**
+ * HTTP validators of the remote file a database was installed from, kept per
+ * database name so the next freshness check can be a conditional request.
+ */
+class RemoteValidators {
+
+    private static final String TAG = "RemoteValidators_Log";
+    private static final String EXTENSION = ".validators";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_DIGEST = "digest";
+
+    String url;
+    String etag;
+    String lastModified;
+    /**
+     * Content hash as sent by the server in a {@code Digest} header, if any.
+     */
+    String digest;
+
+    static RemoteValidators from(String url, HttpURLConnection httpConnection) {
+        RemoteValidators validators = new RemoteValidators();
+        validators.url = url;
+        validators.etag = httpConnection.getHeaderField("ETag");
+        validators.lastModified = httpConnection.getHeaderField("Last-Modified");
+        validators.digest = httpConnection.getHeaderField("Digest");
+        return validators;
+    }
+
+    /**
+     * Add {@code If-None-Match}/{@code If-Modified-Since} so an unchanged file is answered with 304.
+     */
+    void applyTo(HttpURLConnection httpConnection) {
+        if (etag != null) httpConnection.setRequestProperty("If-None-Match", etag);
+        if (lastModified != null) httpConnection.setRequestProperty("If-Modified-Since", lastModified);
+    }
+
+    /**
+     * @return true if a full response describes the same content, for servers
+     * that ignore conditional headers
+     */
+    boolean isSameContent(RemoteValidators other) {
+        if (digest != null && other.digest != null) return digest.equals(other.digest);
+        if (etag != null && other.etag != null) return etag.equals(other.etag);
+        return lastModified != null && lastModified.equals(other.lastModified);
+    }
+
+    static File getFile(Context context, String name) {
+        return new File(context.getApplicationInfo().dataDir + "/cache", name + EXTENSION);
+    }
+
+    static RemoteValidators load(Context context, String name) {
+        File file = getFile(context, name);
+        if (!file.exists()) return null;
+        Properties properties = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            Log.w(TAG, "load: unreadable validators file " + file, e);
+            return null;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+        RemoteValidators validators = new RemoteValidators();
+        validators.url = properties.getProperty(KEY_URL);
+        validators.etag = properties.getProperty(KEY_ETAG);
+        validators.lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+        validators.digest = properties.getProperty(KEY_DIGEST);
+        return validators;
+    }
+
+    void save(Context context, String name) {
+        File file = getFile(context, name);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdir();
+        Properties properties = new Properties();
+        if (url != null) properties.setProperty(KEY_URL, url);
+        if (etag != null) properties.setProperty(KEY_ETAG, etag);
+        if (lastModified != null) properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+        if (digest != null) properties.setProperty(KEY_DIGEST, digest);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            properties.store(out, null);
+        } catch (IOException e) {
+            Log.e(TAG, "save: ", e);
+        } finally {
+            Utils.closeQuietly(out);
+        }
+    }
+}
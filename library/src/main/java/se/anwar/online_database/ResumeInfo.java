@@ -0,0 +1,88 @@
+package se.anwar.online_database;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Sidecar kept next to a partially downloaded file so an interrupted transfer
+ * can be continued with a ranged request instead of starting from byte 0.
+ * The offset itself is the length of the partial file; the sidecar only stores
+ * what is needed to validate that the remote file did not change meanwhile.
+ */
+class ResumeInfo {
+
+    private static final String TAG = "ResumeInfo_Log";
+    static final String EXTENSION = ".resume";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_FILE_NAME = "fileName";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_LENGTH = "length";
+
+    String url;
+    String fileName;
+    String etag;
+    String lastModified;
+    long length = -1;
+
+    /**
+     * @return the value to send in {@code If-Range}, or null if the server gave
+     * us no validator (in which case resuming is not safe).
+     */
+    String getValidator() {
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return lastModified;
+    }
+
+    static File getFile(String databasePath) {
+        return new File(databasePath + EXTENSION);
+    }
+
+    static ResumeInfo load(File file) {
+        if (!file.exists()) return null;
+        Properties properties = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            Log.w(TAG, "load: unreadable resume file " + file, e);
+            return null;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+        ResumeInfo info = new ResumeInfo();
+        info.url = properties.getProperty(KEY_URL);
+        info.fileName = properties.getProperty(KEY_FILE_NAME);
+        info.etag = properties.getProperty(KEY_ETAG);
+        info.lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+        try {
+            info.length = Long.parseLong(properties.getProperty(KEY_LENGTH, "-1"));
+        } catch (NumberFormatException e) {
+            info.length = -1;
+        }
+        if (info.url == null || info.fileName == null) return null;
+        return info;
+    }
+
+    void save(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_URL, url);
+        properties.setProperty(KEY_FILE_NAME, fileName);
+        if (etag != null) properties.setProperty(KEY_ETAG, etag);
+        if (lastModified != null) properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+        properties.setProperty(KEY_LENGTH, String.valueOf(length));
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package se.anwar.online_database;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+/**
+ * Runs an update once its {@link UpdateConstraints} hold: after the main
+ * thread first goes idle if asked to, then checking the network and power
+ * conditions, and checking again every {@link #RETRY_INTERVAL} while they
+ * don't. Keeps checking until the update ran or {@link #stop} is called.
+ */
+class Revalidator implements Runnable {
+
+    private static final String TAG = "Revalidator_Log";
+    static final long RETRY_INTERVAL = 15 * 60 * 1000;
+
+    private final Context mContext;
+    private final UpdateConstraints mConstraints;
+    private final Runnable mUpdate;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mStopped = false;
+
+    Revalidator(Context context, UpdateConstraints constraints, Runnable update) {
+        mContext = context.getApplicationContext();
+        mConstraints = constraints;
+        mUpdate = update;
+    }
+
+    void start() {
+        if (!mConstraints.requiresIdle()) {
+            mHandler.post(this);
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // on the main thread now, so this is the main queue
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        if (!mStopped) Revalidator.this.run();
+                        return false;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drop the update if it didn't run yet. Safe to call from any thread.
+     */
+    void stop() {
+        mStopped = true;
+        mHandler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if (mStopped) return;
+        if (mConstraints.areMet(mContext)) {
+            mUpdate.run();
+        } else {
+            Log.i(TAG, "run: update constraints not met, checking again in " + RETRY_INTERVAL + " ms");
+            mHandler.postDelayed(this, RETRY_INTERVAL);
+        }
+    }
+}
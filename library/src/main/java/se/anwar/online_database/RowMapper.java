@@ -0,0 +1,14 @@
+package se.anwar.online_database;
+
+import android.database.Cursor;
+
+/**
+ * Turns the current row of a cursor into an object, see {@link PagedQuery}.
+ */
+public interface RowMapper<T> {
+
+    /**
+     * @param cursor positioned on the row to map; must not be moved or closed
+     */
+    T map(Cursor cursor);
+}
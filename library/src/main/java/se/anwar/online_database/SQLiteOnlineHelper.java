@@ -1,31 +1,35 @@
 package se.anwar.online_database;
 
-import android.app.Activity;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.os.Build;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.zip.ZipInputStream;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class SQLiteOnlineHelper extends SQLiteOpenHelper {
 
     //region Constants
     private static final String TAG = "SQLiteOnline_Log";
-    private static final int BUFFER_SIZE = 1024;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BACKOFF = 1000;
+    private static final long MAX_RETRY_BACKOFF = 30000;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 25;
+    private static final long RELEASE_POLL_MILLIS = 100;
+    private static final long SWAP_TIMEOUT_MILLIS = 30000;
     //endregion
 
     //region Variables
@@ -33,10 +37,42 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
     private final String mName;
     private final SQLiteDatabase.CursorFactory mFactory;
     private final int mNewVersion;
+    private final OpenOptions mOptions;
 
-    private SQLiteDatabase mDatabase = null;
+    private volatile SQLiteDatabase mDatabase = null;
     private boolean mIsInitializing = false;
     private String mDatabasePath;
+
+    private boolean mResumeEnabled = false;
+    private int mMaxRetries = DEFAULT_MAX_RETRIES;
+    private long mRetryBackoffMillis = DEFAULT_RETRY_BACKOFF;
+    private boolean mStreamingExtraction = false;
+    private int mDownloadSegments = 1;
+    private Executor mCallbackExecutor = CallbackExecutors.mainThread();
+    private long mProgressIntervalMillis = 0;
+    private OnDownloadMetricsListener mMetricsListener;
+    private FsyncPolicy mFsyncPolicy = FsyncPolicy.DATA;
+    private volatile DownloadMetrics mLastMetrics;
+    private volatile boolean mSwapPending = false;
+    private boolean mQuickCheckEnabled = false;
+    private int mReadConnections = 0;
+    private volatile ReadConnectionPool mReadPool;
+    private final DatabaseReferences mReferences = new DatabaseReferences(new Runnable() {
+        @Override
+        public void run() {
+            installDeferredSwap();
+        }
+    });
+    /**
+     * A WAL swap timed out waiting for readers, the new file waits in {@link #getDeferredFile()}.
+     */
+    private volatile boolean mSwapDeferred = false;
+    private Revalidator mRevalidator;
+    private volatile QueryCache mQueryCache;
+    private int mStatementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private final CopyOnWriteArrayList<OnDatabaseUpdatedListener> mUpdatedListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, SQLiteOnlineHelper> mShards = new LinkedHashMap<>();
+    private final CopyOnWriteArrayList<SQLiteOnlineHelper> mAttachedTo = new CopyOnWriteArrayList<>();
     //endregion
 
     //region Constructor
@@ -56,8 +92,10 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
      * @param version          number of the database (starting at 1); if the database is older,
      *                         SQL file(s) contained within the application assets folder will be used to
      *                         upgrade the database
+     * @param options          connection settings applied on every open, or null for the defaults
      */
-    public SQLiteOnlineHelper(Context context, String name, String storageDirectory, SQLiteDatabase.CursorFactory factory, int version) {
+    public SQLiteOnlineHelper(Context context, String name, String storageDirectory, SQLiteDatabase.CursorFactory factory, int version,
+                              OpenOptions options) {
         super(context, name, factory, version);
 
         if (version < 1) throw new IllegalArgumentException("Version must be >= 1, was " + version);
@@ -67,6 +105,7 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
         mName = name;
         mFactory = factory;
         mNewVersion = version;
+        mOptions = options != null ? options : OpenOptions.DEFAULT;
 
         if (storageDirectory != null) {
             mDatabasePath = storageDirectory;
@@ -75,6 +114,35 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Create a helper object to create, open, and/or manage a database in
+     * a specified location, with the default {@link OpenOptions}.
+     *
+     * @param context          to use to open or create the database
+     * @param name             of the database file
+     * @param storageDirectory to store the database file upon creation
+     * @param factory          to use for creating cursor objects, or null for the default
+     * @param version          number of the database (starting at 1)
+     */
+    public SQLiteOnlineHelper(Context context, String name, String storageDirectory, SQLiteDatabase.CursorFactory factory, int version) {
+        this(context, name, storageDirectory, factory, version, null);
+    }
+
+    /**
+     * Create a helper object to create, open, and/or manage a database in
+     * the application's default private data directory, opened with {@code options}.
+     *
+     * @param context to use to open or create the database
+     * @param name    of the database file
+     * @param factory to use for creating cursor objects, or null for the default
+     * @param version number of the database (starting at 1)
+     * @param options connection settings applied on every open, or null for the defaults
+     */
+    public SQLiteOnlineHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version,
+                              OpenOptions options) {
+        this(context, name, null, factory, version, options);
+    }
+
     /**
      * Create a helper object to create, open, and/or manage a database in
      * the application's default private data directory.
@@ -90,14 +158,22 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
      *                upgrade the database
      */
     public SQLiteOnlineHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
-        this(context, name, null, factory, version);
+        this(context, name, null, factory, version, null);
     }
     //endregion
 
     //region Override
     @Override
-    public synchronized SQLiteDatabase getWritableDatabase() {
-        if (mDatabase != null && mDatabase.isOpen() && !mDatabase.isReadOnly()) {
+    public SQLiteDatabase getWritableDatabase() {
+        SQLiteDatabase db = mDatabase;
+        if (db != null && db.isOpen() && !db.isReadOnly() && !mSwapPending) {
+            return db;  // lock-free fast path, the common case once opened
+        }
+        return openWritableDatabase();
+    }
+
+    private synchronized SQLiteDatabase openWritableDatabase() {
+        if (mDatabase != null && mDatabase.isOpen() && !mDatabase.isReadOnly() && !mSwapPending) {
             return mDatabase;  // The database is already open for business
         }
 
@@ -112,10 +188,13 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
         // lock on the read-only database, which shuts out other users.
 
         boolean success = false;
+        boolean wal = false;
         SQLiteDatabase db = null;
         //if (mDatabase != null) mDatabase.lock();
         try {
             mIsInitializing = true;
+            // a new file was installed: open it, the old connection is released below
+            mSwapPending = false;
             //if (mName == null) {
             //    db = SQLiteDatabase.create(null);
             //} else {
@@ -132,16 +211,18 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
                 version = db.getVersion();
             }
 
-            if (version != mNewVersion) {
+            configureConnection(db);
+            mOptions.applyToMain(db);
+
+            if (version > mNewVersion) {
+                // changesets moved the downloaded database past the app's version, keep it
+                Log.i(TAG, "database " + mName + " is at version " + version + ", newer than " + mNewVersion);
+            } else if (version != mNewVersion) {
                 db.beginTransaction();
                 try {
                     if (version == 0) {
                         onCreate(db);
                     } else {
-                        if (version > mNewVersion) {
-                            Log.w(TAG, "Can't downgrade read-only database from version " +
-                                    version + " to " + mNewVersion + ": " + db.getPath());
-                        }
                         onUpgrade(db, version, mNewVersion);
                     }
                     db.setVersion(mNewVersion);
@@ -149,23 +230,30 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
                 } finally {
                     db.endTransaction();
                 }
+                invalidateQueryCache();
             }
 
+            if (mReadConnections > 0) {
+                // must run outside of a transaction
+                wal = db.enableWriteAheadLogging();
+                if (!wal) Log.w(TAG, "could not enable write-ahead logging for " + mName);
+            }
+
+            // must run outside of a transaction
+            attachShards(db);
+
             onOpen(db);
+            if (mOptions.isQueryOnly()) OpenOptions.pragma(db, "query_only=1");
             success = true;
             return db;
         } finally {
             mIsInitializing = false;
             if (success) {
-                if (mDatabase != null) {
-                    try {
-                        mDatabase.close();
-                    } catch (Exception e) {
-                        Log.e(TAG, "getWritableDatabase: ", e);
-                    }
-                    //mDatabase.unlock();
-                }
+                // publish first, callers that still hold the old one release it
+                SQLiteDatabase old = mDatabase;
                 mDatabase = db;
+                resetReadPool(wal ? db.getPath() : null);
+                if (old != null) mReferences.retire(old);
             } else {
                 //if (mDatabase != null) mDatabase.unlock();
                 if (db != null) db.close();
@@ -181,7 +269,8 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
      * database object will be returned.  If the problem is fixed, a future call
      * to {@link #getWritableDatabase} may succeed, in which case the read-only
      * database object will be closed and the read/write object will be returned
-     * in the future.
+     * in the future. With {@link #setConcurrentReads} this returns one of the
+     * pooled read-only connections instead.
      *
      * <p class="caution">Like {@link #getWritableDatabase}, this method may
      * take a long time to return, so you should not call it from the
@@ -189,12 +278,67 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
      * {@link android.content.ContentProvider#onCreate ContentProvider.onCreate()}.
      *
      * @return a database object valid until {@link #getWritableDatabase}
-     * or {@link #close} is called.
+     * or {@link #close} is called, or a new file is installed; use
+     * {@link #acquireReadableDatabase} to keep it open for longer.
      * @throws SQLiteException if the database cannot be opened
      */
     @Override
-    public synchronized SQLiteDatabase getReadableDatabase() {
-        if (mDatabase != null && mDatabase.isOpen()) {
+    public SQLiteDatabase getReadableDatabase() {
+        SQLiteDatabase db = mDatabase;
+        if (db == null || !db.isOpen() || mSwapPending) {
+            db = openReadableDatabase();
+        }
+        ReadConnectionPool pool = mReadPool;
+        if (pool != null && !db.isReadOnly()) {
+            SQLiteDatabase connection = pool.acquire();
+            if (connection != null) return connection;
+        }
+        return db;
+    }
+
+    /**
+     * {@link #getReadableDatabase}, kept open for the caller until
+     * {@link #releaseDatabase}. Installing a new file doesn't close it under
+     * the caller: a replaced connection goes on reading the old file and is
+     * closed with its last release. In write-ahead logging mode (see
+     * {@link #setConcurrentReads}) the new file is only installed once every
+     * acquired connection was released, so release them promptly.
+     * <pre>
+     * SQLiteDatabase db = helper.acquireReadableDatabase();
+     * try {
+     *     ...
+     * } finally {
+     *     helper.releaseDatabase(db);
+     * }
+     * </pre>
+     *
+     * @throws SQLiteException if the database cannot be opened
+     */
+    public SQLiteDatabase acquireReadableDatabase() {
+        while (true) {
+            SQLiteDatabase db = getReadableDatabase();
+            if (mReferences.acquire(db)) return db;
+            // replaced or closed since, the next call returns the current one
+        }
+    }
+
+    /**
+     * Hand back a database from {@link #acquireReadableDatabase}, once per call.
+     */
+    public void releaseDatabase(SQLiteDatabase db) {
+        if (db == null) throw new IllegalArgumentException("db cannot be null");
+        mReferences.release(db);
+    }
+
+    private SQLiteDatabase acquireWritableDatabase() {
+        while (true) {
+            SQLiteDatabase db = getWritableDatabase();
+            if (mReferences.acquire(db)) return db;
+        }
+    }
+
+    private synchronized SQLiteDatabase openReadableDatabase() {
+        if (mDatabase != null && mDatabase.isOpen() && !mSwapPending) {
             return mDatabase;  // The database is already open for business
         }
 
@@ -212,16 +356,20 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = null;
         try {
             mIsInitializing = true;
-            String path = mContext.getDatabasePath(mName).getPath();
+            String path = mDatabasePath + "/" + mName;
             db = SQLiteDatabase.openDatabase(path, mFactory, SQLiteDatabase.OPEN_READONLY);
-            if (db.getVersion() != mNewVersion) {
+            configureConnection(db);
+            attachShards(db);
+            if (db.getVersion() < mNewVersion) {
                 throw new SQLiteException("Can't upgrade read-only database from version " +
                         db.getVersion() + " to " + mNewVersion + ": " + path);
             }
 
             onOpen(db);
             Log.w(TAG, "Opened " + mName + " in read-only mode");
+            SQLiteDatabase old = mDatabase;
             mDatabase = db;
+            if (old != null) mReferences.retire(old);
             return mDatabase;
         } finally {
             mIsInitializing = false;
@@ -230,21 +378,51 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Close any open database object.
+     * Close any open database object. Databases still acquired with
+     * {@link #acquireReadableDatabase} are closed when they are released.
      */
     @Override
     public synchronized void close() {
         if (mIsInitializing) throw new IllegalStateException("Closed during initialization");
 
-        if (mDatabase != null && mDatabase.isOpen()) {
-            mDatabase.close();
+        resetReadPool(null);
+        if (mDatabase != null) {
+            mReferences.retire(mDatabase);
             mDatabase = null;
         }
     }
 
+    /**
+     * Replace the read pool with one for {@code path}, or remove it if null.
+     */
+    private void resetReadPool(String path) {
+        ReadConnectionPool old = mReadPool;
+        mReadPool = path != null ? new ReadConnectionPool(path, mFactory, mReadConnections,
+                new ReadConnectionPool.Configurator() {
+                    @Override
+                    public void configure(SQLiteDatabase db) {
+                        configureConnection(db);
+                    }
+                }) : null;
+        if (old != null) old.close(mReferences);
+    }
+
+    /**
+     * Set up a newly opened connection, see {@link OpenOptions}.
+     */
+    private void configureConnection(SQLiteDatabase db) {
+        mOptions.applyTo(db);
+        try {
+            db.setMaxSqlCacheSize(mStatementCacheSize);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "configureConnection: " + e.getMessage());
+        }
+    }
+
     @Override
     public final void onConfigure(SQLiteDatabase db) {
-        // not supported!
+        // not supported! pass OpenOptions to the constructor instead; onConfigure
+        // only sees the primary connection, not the ones WAL mode adds behind it
     }
 
     @Override
@@ -279,6 +457,7 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
             // database already exists
             if (force) {
                 Log.w(TAG, "forcing database upgrade!");
+                db.close();
                 copyDatabaseFromZip();
                 db = returnDatabase();
             }
@@ -303,25 +482,21 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
     }
 
     private void copyDatabaseFromZip() throws SQLiteOnlineException {
+        copyDatabaseFromZip(null);
+    }
+
+    /**
+     * @param metrics records the extraction and the install apart, may be null
+     */
+    private void copyDatabaseFromZip(DownloadMetrics metrics) throws SQLiteOnlineException {
         Log.d(TAG, "copying database from assets...");
 
         String path = mDatabasePath + "/" + mName;
-        String dest = mDatabasePath + "/" + mName;
-        InputStream is;
-        boolean isZip = false;
-        // try zip
-        try {
-            is = new FileInputStream(path + ".zip");
-            isZip = true;
-        } catch (IOException e2) {
-            // try gzip
-            try {
-                is = new FileInputStream(path + ".gz");
-            } catch (IOException e3) {
-                SQLiteOnlineException se = new SQLiteOnlineException("Missing " + mName + " file (or .zip, .gz archive) in assets, or target folder not writable");
-                se.setStackTrace(e3.getStackTrace());
-                throw se;
-            }
+        String dest = getStagedFile().getPath();
+        File archive = Codecs.findArchive(path);
+        if (archive == null) {
+            throw new SQLiteOnlineException("Missing " + mName + " archive (one of "
+                    + Codecs.getExtensions() + "), or target folder not writable");
         }
 
         try {
@@ -329,15 +504,34 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
             if (!f.exists()) {
                 Log.i(TAG, "copyDatabaseFromZip: mkdir " + f.mkdir());
             }
-            if (isZip) {
-                ZipInputStream zis = Utils.getFileFromZip(is);
-                if (zis == null) {
-                    throw new SQLiteOnlineException("Archive is missing a SQLite database file");
-                }
-                Utils.writeExtractedFileToDisk(zis, new FileOutputStream(dest));
+            long start = System.nanoTime();
+            ZipBundle bundle = null;
+            if (archive.getName().endsWith(".zip")) {
+                // may hold companion files too, extracted in parallel
+                bundle = new ZipBundle(archive, f, mName, new File(dest));
+                bundle.extract(mFsyncPolicy);
+            } else if (archive.getName().endsWith(".gz") && BlockGzip.isBlockCompressed(archive)) {
+                BlockGzip.decompress(archive, new File(dest), mFsyncPolicy);
             } else {
-                Utils.writeExtractedFileToDisk(is, new FileOutputStream(dest));
+                InputStream is = new FileInputStream(archive);
+                InputStream extracted;
+                try {
+                    extracted = Codecs.open(is, archive.getName());
+                } catch (IOException e) {
+                    Utils.closeQuietly(is);
+                    throw e;
+                }
+                Utils.writeExtractedFileToDisk(extracted, new FileOutputStream(dest), mFsyncPolicy);
+            }
+            if (metrics != null) metrics.recordDecompression(DownloadMetrics.since(start));
+
+            try {
+                installStagedDatabase(new File(dest), metrics);
+            } catch (SQLiteOnlineException e) {
+                if (bundle != null) bundle.discard();
+                throw e;
             }
+            if (bundle != null) bundle.installCompanions();
 
             Log.d(TAG, "database copy complete");
 
@@ -347,114 +541,764 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
             throw se;
         }
     }
+
+    private static void quickCheck(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("PRAGMA quick_check", null);
+        try {
+            String result = c.moveToFirst() ? c.getString(0) : null;
+            if (!"ok".equals(result)) {
+                throw new SQLiteException("quick_check failed: " + result);
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    private File getStagedFile() {
+        return new File(mDatabasePath + "/" + mName + ".tmp");
+    }
+
+    /**
+     * Out of the way of the next download, which stages into {@link #getStagedFile()} again.
+     */
+    private File getDeferredFile() {
+        return new File(mDatabasePath + "/" + mName + ".deferred");
+    }
+
+    /**
+     * {@link #installStagedDatabase(File)}, timed into {@code metrics} unless it is null.
+     */
+    private void installStagedDatabase(File staged, DownloadMetrics metrics) {
+        long start = System.nanoTime();
+        installStagedDatabase(staged);
+        if (metrics != null) metrics.recordInstall(DownloadMetrics.since(start));
+    }
+
+    /**
+     * Atomically replace the database with {@code staged} once it opens as a
+     * SQLite database. Connections to the old file keep working on it until the
+     * next {@link #getReadableDatabase}/{@link #getWritableDatabase} call, which
+     * opens the new file and retires the old connection: it is closed once
+     * nobody holds it from {@link #acquireReadableDatabase} anymore. In WAL mode
+     * the old file's log sits next to the new file, so the swap waits until no
+     * connection is acquired and closes them all first. If readers still hold
+     * the old file after {@link #SWAP_TIMEOUT_MILLIS} this throws, keeps the new
+     * file and installs it when the last of them releases it.
+     */
+    void installStagedDatabase(File staged) {
+        try {
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(staged.getPath(), mFactory, SQLiteDatabase.OPEN_READONLY);
+            try {
+                db.getVersion();
+                if (mQuickCheckEnabled) quickCheck(db);
+            } finally {
+                db.close();
+            }
+        } catch (SQLiteException e) {
+            Utils.deleteQuietly(staged);
+            throw new SQLiteOnlineException("Downloaded " + mName + " is not a valid database: " + e.getMessage());
+        }
+
+        synchronized (this) {
+            // superseded by this one
+            if (mSwapDeferred) Utils.deleteQuietly(getDeferredFile());
+            mSwapDeferred = false;
+        }
+
+        File dest = getDatabaseFile();
+        File wal = new File(dest.getPath() + "-wal");
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SWAP_TIMEOUT_MILLIS);
+        boolean waited = false;
+        while (!swapDatabaseFile(staged, dest, wal)) {
+            if (System.nanoTime() - deadline >= 0) {
+                if (deferSwap(staged)) return;
+                throw new SQLiteOnlineException("Readers of " + mName + " held it for " + SWAP_TIMEOUT_MILLIS
+                        + "ms, the new file is installed once they release it");
+            }
+            if (!waited) {
+                Log.i(TAG, "installStagedDatabase: waiting for " + mReferences.count() + " reader(s) of " + mName);
+                waited = true;
+            }
+            try {
+                mReferences.awaitRelease(RELEASE_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Utils.deleteQuietly(staged);
+                throw new SQLiteOnlineException("Interrupted waiting for the readers of " + mName);
+            }
+        }
+        onDatabaseInstalled();
+    }
+
+    private void onDatabaseInstalled() {
+        invalidateQueryCache();
+        notifyDatabaseUpdated();
+        for (SQLiteOnlineHelper parent : mAttachedTo) parent.onShardInstalled();
+        Log.i(TAG, "installed new " + mName);
+    }
+
+    /**
+     * Keep {@code staged} for {@link #installDeferredSwap}.
+     *
+     * @return true if the last reader released the old file meanwhile and the new one is installed
+     */
+    private boolean deferSwap(File staged) {
+        File deferred = getDeferredFile();
+        synchronized (this) {
+            if (!staged.renameTo(deferred)) {
+                Utils.deleteQuietly(staged);
+                throw new SQLiteOnlineException("Unable to move " + staged + " to " + deferred);
+            }
+            mSwapDeferred = true;
+        }
+        return mReferences.isUnused() && installDeferredSwap();
+    }
+
+    /**
+     * Called when the last acquired connection is released.
+     *
+     * @return true if a deferred file was installed
+     */
+    private boolean installDeferredSwap() {
+        if (!mSwapDeferred) return false;
+        File dest = getDatabaseFile();
+        synchronized (this) {
+            if (!mSwapDeferred) return false;
+            try {
+                if (!swapDatabaseFile(getDeferredFile(), dest, new File(dest.getPath() + "-wal"))) return false;
+            } catch (SQLiteOnlineException e) {
+                // runs on the releasing thread, nobody to throw to
+                Log.e(TAG, "installDeferredSwap: ", e);
+                return false;
+            } finally {
+                // renamed into place, or deleted when that failed
+                if (!getDeferredFile().exists()) mSwapDeferred = false;
+            }
+        }
+        onDatabaseInstalled();
+        return true;
+    }
+
+    /**
+     * @return false if the old file is in WAL mode and still in use, nothing was changed then
+     */
+    private synchronized boolean swapDatabaseFile(File staged, File dest, File wal) {
+        if (mReadConnections > 0 || wal.exists()) {
+            // the log belongs to the old file, SQLite would replay it onto the new one;
+            // holding mReferences keeps anyone from acquiring a connection meanwhile
+            synchronized (mReferences) {
+                if (!mReferences.isUnused()) return false;
+                closeForSwap();
+                Utils.deleteQuietly(wal);
+                Utils.deleteQuietly(new File(dest.getPath() + "-shm"));
+                renameStaged(staged, dest);
+            }
+        } else {
+            // a write through the old connection would leave a rollback journal
+            // that SQLite then plays back onto the new file
+            SQLiteDatabase old = mDatabase;
+            boolean frozen = old != null && old.isOpen() && !old.isReadOnly() && !mOptions.isQueryOnly();
+            if (frozen) OpenOptions.pragma(old, "query_only=1");
+            try {
+                renameStaged(staged, dest);
+            } catch (SQLiteOnlineException e) {
+                if (frozen) OpenOptions.pragma(old, "query_only=0");
+                throw e;
+            }
+        }
+        // while initializing, getWritableDatabase opens the new file itself
+        mSwapPending = mDatabase != null && !mIsInitializing;
+        return true;
+    }
+
+    private static void renameStaged(File staged, File dest) {
+        // rename(2) swaps the directory entry in one step; open descriptors keep the old inode
+        if (!staged.renameTo(dest)) {
+            Utils.deleteQuietly(staged);
+            throw new SQLiteOnlineException("Unable to move " + staged + " to " + dest);
+        }
+    }
+
+    /**
+     * Close every connection before a WAL database is replaced, once none is
+     * acquired; the next {@link #getReadableDatabase}/{@link #getWritableDatabase}
+     * opens the new file.
+     */
+    private void closeForSwap() {
+        resetReadPool(null);
+        if (mDatabase != null) {
+            mReferences.retire(mDatabase);
+            mDatabase = null;
+        }
+    }
+    //endregion
+
+    //region Shards
+
+    /**
+     * Attach {@code shard}'s database to every connection of this one as
+     * {@code alias}, see {@link ShardedDatabase}. Open connections are replaced
+     * on the next {@link #getReadableDatabase}/{@link #getWritableDatabase} call.
+     */
+    synchronized void attachShard(String alias, SQLiteOnlineHelper shard) {
+        if (mReadConnections > 0)
+            throw new IllegalStateException("concurrent reads need write-ahead logging, which Android disables with attached shards");
+        if (mOptions.getJournalMode() == OpenOptions.JournalMode.WAL)
+            throw new IllegalStateException("write-ahead logging is disabled by Android with attached shards");
+        mShards.put(alias, shard);
+        shard.mAttachedTo.addIfAbsent(this);
+        mSwapPending = mDatabase != null && !mIsInitializing;
+    }
+
+    /**
+     * A shard was replaced, connections still have the old file attached.
+     */
+    private void onShardInstalled() {
+        synchronized (this) {
+            mSwapPending = mDatabase != null && !mIsInitializing;
+        }
+        invalidateQueryCache();
+        notifyDatabaseUpdated();
+    }
+
+    private void attachShards(SQLiteDatabase db) {
+        for (Map.Entry<String, SQLiteOnlineHelper> entry : mShards.entrySet()) {
+            File file = entry.getValue().getDatabaseFile();
+            if (!file.exists()) {
+                // ATTACH would create an empty file in its place
+                Log.i(TAG, "attachShards: " + entry.getKey() + " is not installed yet");
+                continue;
+            }
+            db.execSQL("ATTACH DATABASE ? AS " + entry.getKey(), new Object[]{file.getPath()});
+        }
+    }
+
+    File getDatabaseFile() {
+        return new File(mDatabasePath + "/" + mName);
+    }
     //endregion
 
     //region Download database
     private boolean isDatabaseDownloaded() {
         String path = mDatabasePath + "/" + mName;
-        return new File(path).exists()
-                || new File(path + ".zip").exists()
-                || new File(path + ".gz").exists();
+        if (ResumeInfo.getFile(path).exists()) {
+            // an interrupted download left a partial archive behind
+            return false;
+        }
+        return new File(path).exists() || Codecs.findArchive(path) != null;
     }
 
     public boolean shouldDownloadDatabase() {
-        int mDbVersion = Utils.getDatabaseVersion(mContext);
-        boolean shouldUpdate = mDbVersion < mNewVersion || !isDatabaseDownloaded();
+        int mDbVersion = Utils.getDatabaseVersion(mContext, mName);
+        boolean isOutdated = mDbVersion < mNewVersion;
+        boolean shouldUpdate = isOutdated || !isDatabaseDownloaded();
         if (shouldUpdate) {
             String path = mDatabasePath + "/" + mName;
-            Utils.deleteDatabaseFiles(path);
+            if (mResumeEnabled && !isOutdated && ResumeInfo.getFile(path).exists()) {
+                Log.i(TAG, "shouldDownloadDatabase: keeping partial download of " + mName);
+            } else {
+                // the installed database stays usable until its replacement is in place
+                Utils.deleteDownloadFiles(path);
+            }
+        } else {
+            Utils.setDatabaseVersion(mContext, mName, Math.max(mDbVersion, mNewVersion));
         }
-        Utils.setDatabaseVersion(mContext, mNewVersion);
         return shouldUpdate;
     }
 
+    /**
+     * Like {@link #shouldDownloadDatabase()}, but only looks: partial downloads
+     * are left alone, so it can be called while a download is in flight.
+     */
+    boolean isDatabaseOutdated() {
+        return Utils.getDatabaseVersion(mContext, mName) < mNewVersion || !isDatabaseDownloaded();
+    }
+
+    /**
+     * Like {@link #shouldDownloadDatabase()}, but when the installed database is
+     * current locally, also ask the server whether {@code fileURL} changed since
+     * it was downloaded. This is a single conditional request answered with
+     * {@code 304 Not Modified} while the database is fresh.
+     * <p class="caution">Performs network I/O, don't call it from the main thread.
+     *
+     * @return true if the database has to be downloaded; if only the remote file
+     * changed, the installed database is kept until the new one replaces it
+     */
+    public boolean shouldDownloadDatabase(String fileURL) {
+        if (shouldDownloadDatabase()) return true;
+        try {
+            return isRemoteDatabaseModified(fileURL);
+        } catch (IOException e) {
+            Log.w(TAG, "shouldDownloadDatabase: freshness check failed, keeping local database", e);
+            return false;
+        }
+    }
+
+    /**
+     * Send a conditional request ({@code If-None-Match}/{@code If-Modified-Since})
+     * with the validators stored when the database was last downloaded.
+     * <p class="caution">Performs network I/O, don't call it from the main thread.
+     *
+     * @return false if the server reports the file unchanged, true if it changed
+     * or nothing is known about the installed copy
+     */
+    public boolean isRemoteDatabaseModified(String fileURL) throws IOException {
+        RemoteValidators stored = RemoteValidators.load(mContext, mName);
+        if (stored == null || !fileURL.equals(stored.url)) return true;
+
+        HttpURLConnection httpConnection = HttpDownloader.openConnection(fileURL);
+        try {
+            httpConnection.setRequestMethod("HEAD");
+            stored.applyTo(httpConnection);
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.i(TAG, "isRemoteDatabaseModified: " + mName + " not modified");
+                return false;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Freshness check failed, HTTP code: " + responseCode);
+            }
+            boolean modified = !stored.isSameContent(RemoteValidators.from(fileURL, httpConnection));
+            Log.i(TAG, "isRemoteDatabaseModified: " + mName + (modified ? " modified" : " unchanged"));
+            return modified;
+        } finally {
+            httpConnection.disconnect();
+        }
+    }
+
+    /**
+     * Keep partially downloaded data when a download fails, and continue it with
+     * a ranged request on the next attempt instead of starting from byte 0.
+     * In resume mode failed transfers are also retried automatically, see
+     * {@link #setRetryPolicy(int, long)}.
+     */
+    public void setResumeEnabled(boolean resumeEnabled) {
+        mResumeEnabled = resumeEnabled;
+    }
+
+    /**
+     * @param maxRetries           number of times a failed transfer is retried in resume mode
+     * @param initialBackoffMillis delay before the first retry; doubled for every
+     *                             following retry, up to {@value #MAX_RETRY_BACKOFF} ms
+     */
+    public void setRetryPolicy(int maxRetries, long initialBackoffMillis) {
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries must be >= 0, was " + maxRetries);
+        if (initialBackoffMillis < 0) throw new IllegalArgumentException("initialBackoffMillis must be >= 0");
+        mMaxRetries = maxRetries;
+        mRetryBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Inflate compressed downloads straight into the database file
+     * while the body is arriving, instead of saving the archive first and
+     * extracting it afterwards. Streamed downloads can not be resumed; in resume
+     * mode a failed transfer is retried from the start.
+     */
+    public void setStreamingExtraction(boolean streamingExtraction) {
+        mStreamingExtraction = streamingExtraction;
+    }
+
+    /**
+     * Choose whether an extracted database is synced to storage before it
+     * replaces the installed one. Defaults to {@link FsyncPolicy#DATA}, so a
+     * crash right after the swap can't leave a half-written database behind.
+     */
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        if (fsyncPolicy == null) throw new IllegalArgumentException("fsyncPolicy cannot be null");
+        mFsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Fetch large files over {@code segments} parallel connections, each
+     * downloading its own byte range. Falls back to a single stream when the
+     * server does not advertise {@code Accept-Ranges: bytes} or doesn't answer
+     * {@code HEAD}. Segments of all downloads share a pool of at most 8
+     * connections. Ignored in streaming extraction mode.
+     *
+     * @param segments number of concurrent connections, 1 to disable
+     */
+    public void setDownloadSegments(int segments) {
+        if (segments < 1) throw new IllegalArgumentException("segments must be >= 1, was " + segments);
+        mDownloadSegments = segments;
+    }
+
     public void downloadDatabase(final String fileURL,
                                  final OnFileDownloadListener listener) {
-        ExecutorService exec = Executors.newCachedThreadPool();
-        exec.submit(new Runnable() {
+        downloadDatabase(fileURL, null, listener);
+    }
+
+    /**
+     * Download and install the database, checking the downloaded file against
+     * {@code expectedDigest}. The digest is computed on the fly while the body
+     * is received, and a mismatch fails the download before anything is
+     * installed. In segmented mode the assembled file is hashed once at the end.
+     *
+     * @param expectedDigest {@code "sha256:<hex>"} (or a bare SHA-256 hex string) or
+     *                       {@code "crc32:<hex>"} of the file as served, i.e. of the
+     *                       archive for compressed downloads; null to skip
+     */
+    public void downloadDatabase(final String fileURL, final String expectedDigest,
+                                 final OnFileDownloadListener listener) {
+        ContentDigest.parse(expectedDigest); // fail fast on a malformed digest
+        enqueue("download", listener, new DownloadDispatcher.Task() {
             @Override
-            public void run() {
-                downloadFile(fileURL, listener);
+            public void run(OnFileDownloadListener group) {
+                downloadFile(fileURL, ContentDigest.parse(expectedDigest), group);
             }
         });
     }
 
-    private void downloadFile(String fileURL, final OnFileDownloadListener listener) {
-        onStart(listener);
-        HttpsURLConnection httpConnection = null;
-        try {
-            URL url = new URL(fileURL);
-            httpConnection = (HttpsURLConnection) url.openConnection();
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
-                httpConnection.setSSLSocketFactory(new TLSSocketFactory());
-            httpConnection.addRequestProperty("Accept-Encoding", "identity");
-            int responseCode = httpConnection.getResponseCode();
+    /**
+     * @return true if an installed database can be opened right now, even one
+     * that {@link #shouldDownloadDatabase()} considers outdated
+     */
+    public boolean isDatabaseAvailable() {
+        return new File(mDatabasePath + "/" + mName).exists();
+    }
 
-            String fileName = "";
-            // always check HTTP response code first
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                String disposition = httpConnection.getHeaderField("Content-Disposition");
-                String contentType = httpConnection.getContentType();
-                int contentLength = httpConnection.getContentLength();
-
-                if (disposition != null) {
-                    // extracts file name from header field
-                    int index = disposition.indexOf("filename=");
-                    if (index > 0) {
-                        fileName = disposition.substring(index + 10,
-                                disposition.length() - 1);
+    /**
+     * Stale-while-revalidate: keep serving the installed database and update it
+     * in the background. Once {@code constraints} are met, the server is asked
+     * whether {@code fileURL} changed (see {@link #shouldDownloadDatabase(String)})
+     * and only then is the new database downloaded and swapped in; registered
+     * {@link OnDatabaseUpdatedListener}s are told when that happens. Without an
+     * installed database there is nothing to serve, so it is downloaded right
+     * away, ignoring {@code constraints}.
+     * <p>
+     * Call it at startup, after {@link #isDatabaseAvailable()} decided whether to
+     * show the data or wait for the download. A revalidation still waiting for
+     * its constraints is replaced, so calling it again, e.g. from
+     * {@code onCreate} after a rotation, doesn't add another one; see
+     * {@link #stopRevalidation()}.
+     *
+     * @param constraints when the update may run, {@link UpdateConstraints#NONE} for as soon as possible
+     * @param listener    told about the download, if one turns out to be needed; may be null
+     */
+    public void revalidate(final String fileURL, UpdateConstraints constraints,
+                           final OnFileDownloadListener listener) {
+        if (constraints == null) throw new IllegalArgumentException("constraints cannot be null");
+        Runnable update = new Runnable() {
+            @Override
+            public void run() {
+                enqueue("download", listener, new DownloadDispatcher.Task() {
+                    @Override
+                    public void run(OnFileDownloadListener group) {
+                        // checked here, so a download in flight never has its files deleted
+                        if (shouldDownloadDatabase(fileURL)) {
+                            downloadFile(fileURL, null, group);
+                        } else {
+                            Log.i(TAG, "revalidate: " + mName + " is up to date");
+                        }
                     }
+                });
+            }
+        };
+        if (isDatabaseAvailable()) {
+            Revalidator revalidator = new Revalidator(mContext, constraints, update);
+            Revalidator previous;
+            synchronized (this) {
+                previous = mRevalidator;
+                mRevalidator = revalidator;
+            }
+            if (previous != null) previous.stop();
+            revalidator.start();
+        } else {
+            update.run();
+        }
+    }
+
+    /**
+     * Drop the update {@link #revalidate} scheduled if it is still waiting for
+     * its constraints, e.g. when the screen showing the data is finished. A
+     * download already started is not cancelled.
+     */
+    public void stopRevalidation() {
+        Revalidator revalidator;
+        synchronized (this) {
+            revalidator = mRevalidator;
+            mRevalidator = null;
+        }
+        if (revalidator != null) revalidator.stop();
+    }
+
+    /**
+     * Download the database unless an up-to-date copy is installed, telling
+     * {@code listener} about success either way. The check runs in the download
+     * slot, so it can't delete the files of a download in flight.
+     */
+    void downloadIfOutdated(final String fileURL, final OnFileDownloadListener listener) {
+        enqueue("download", listener, new DownloadDispatcher.Task() {
+            @Override
+            public void run(OnFileDownloadListener group) {
+                if (shouldDownloadDatabase()) {
+                    downloadFile(fileURL, null, group);
                 } else {
-                    // extracts file name from URL
-                    fileName = fileURL.substring(fileURL.lastIndexOf("/") + 1);
+                    onSuccess(group);
                 }
+            }
+        });
+    }
 
-                Log.i(TAG, "Content-Type = " + contentType);
-                Log.i(TAG, "Content-Disposition = " + disposition);
-                Log.i(TAG, "Content-Length = " + contentLength);
-                Log.i(TAG, "fileName = " + fileName);
+    /**
+     * Also run {@code PRAGMA quick_check} on a new database before it replaces
+     * the installed one. Costs a read of the whole file.
+     */
+    public void setQuickCheckEnabled(boolean quickCheckEnabled) {
+        mQuickCheckEnabled = quickCheckEnabled;
+    }
 
-                if (contentLength < 0) {
-                    throw new SQLiteOnlineException
-                            ("No file to download. Server replied HTTP code: " + responseCode);
-                }
+    /**
+     * Open the database in write-ahead logging mode and serve
+     * {@link #getReadableDatabase} from a pool of read-only connections, so
+     * queries on several threads run in parallel and don't wait for writes.
+     * Takes effect the next time the database is opened. Replacing the
+     * database waits until no connection is acquired (see
+     * {@link #acquireReadableDatabase}) and closes those of the old file first.
+     *
+     * @param readConnections size of the read pool, 0 (the default) to disable
+     * @throws IllegalStateException with attached shards, or with
+     *                               {@link OpenOptions.LockingMode#EXCLUSIVE} locking
+     */
+    public synchronized void setConcurrentReads(int readConnections) {
+        if (readConnections < 0) throw new IllegalArgumentException("readConnections must be >= 0, was " + readConnections);
+        if (readConnections > 0 && !mShards.isEmpty())
+            throw new IllegalStateException("concurrent reads need write-ahead logging, which Android disables with attached shards");
+        if (readConnections > 0 && mOptions.getLockingMode() == OpenOptions.LockingMode.EXCLUSIVE)
+            throw new IllegalStateException("concurrent reads need other connections, which exclusive locking shuts out");
+        mReadConnections = readConnections;
+    }
+
+    /**
+     * Add a decompression format for downloaded databases, or replace the
+     * built-in one with the same extension. zip and gzip are built in; zstd,
+     * xz and brotli are available once {@code com.github.luben:zstd-jni},
+     * {@code org.tukaani:xz} or {@code org.brotli:dec} is added to the app's
+     * dependencies.
+     */
+    public static void registerCodec(DecompressionCodec codec) {
+        Codecs.register(codec);
+    }
 
-                // opens input stream from the HTTP connection
-                InputStream inputStream = httpConnection.getInputStream();
+    /**
+     * Limit how many downloads, syncs and changesets run at the same time across
+     * all helpers; further requests wait in a queue. Defaults to 2.
+     */
+    public static void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        DownloadDispatcher.setMaxConcurrentDownloads(maxConcurrentDownloads);
+    }
 
-                // opens an output stream to save into file
-                File dir = new File(mDatabasePath + "/");
-                if (!dir.exists()) {
-                    boolean mkdir = dir.mkdir();
-                    Log.i(TAG, "downloadFile: " + mkdir);
-                }
-                File dbFile = new File(dir, fileName);
-//                FileOutputStream outputStream = context.openFileOutput(fileName, Context.MODE_PRIVATE);
-                FileOutputStream outputStream = new FileOutputStream(dbFile);
-
-                int bytesRead;
-                long total = 0;
-                byte[] buffer = new byte[BUFFER_SIZE];
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    total += bytesRead;
-                    final int progress = (int) (total * 100 / contentLength);
-                    onProgress(listener, progress);
+    /**
+     * Run {@code task} on the shared download executor. A second request of the
+     * same kind for this database while one is in flight does not start another
+     * transfer; its listener is attached to the running one instead.
+     */
+    private void enqueue(String operation, final OnFileDownloadListener listener, DownloadDispatcher.Task task) {
+        String key = operation + ":" + mDatabasePath + "/" + mName;
+        final DownloadDispatcher.ListenerGroup joined = DownloadDispatcher.enqueue(key, listener, task);
+        if (joined != null && listener != null) {
+            // catch the new listener up with the download it joined, in order with its other callbacks
+            postCallback(new Runnable() {
+                @Override
+                public void run() {
+                    joined.catchUp(listener);
                 }
+            });
+        }
+    }
 
-                outputStream.close();
-                inputStream.close();
-
-                Log.i(TAG, "File downloaded");
-                copyDatabaseFromZip();
+    private void downloadFile(String fileURL, ContentDigest digest, final OnFileDownloadListener listener) {
+        onStart(listener);
+        String path = mDatabasePath + "/" + mName;
+        DownloadMetrics metrics = new DownloadMetrics();
+        HttpDownloader downloader = new HttpDownloader(new File(mDatabasePath + "/"), ResumeInfo.getFile(path));
+        downloader.setResumeEnabled(mResumeEnabled);
+        downloader.setMetrics(metrics);
+        downloader.setFsyncPolicy(mFsyncPolicy);
+        downloader.setDigest(digest);
+        downloader.setRawDestination(getStagedFile());
+        HttpDownloader.ProgressCallback callback = newProgressCallback(listener);
+
+        int attempt = 0;
+        while (true) {
+            try {
+                installDatabase(fileURL, downloader, digest, callback, metrics);
+                publishMetrics(metrics.finish(true));
                 onSuccess(listener);
+                return;
+            } catch (IOException e) {
+                if (!mResumeEnabled || attempt >= mMaxRetries) {
+                    publishMetrics(metrics.finish(false));
+                    onFailed(listener, e);
+                    return;
+                }
+                long backoff = Math.min(mRetryBackoffMillis << Math.min(attempt, 16), MAX_RETRY_BACKOFF);
+                attempt++;
+                metrics.recordRetry();
+                Log.w(TAG, "downloadFile: attempt " + attempt + " failed, retrying in " + backoff + " ms", e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    publishMetrics(metrics.finish(false));
+                    onFailed(listener, e);
+                    return;
+                }
+            } catch (final Exception e) {
+                publishMetrics(metrics.finish(false));
+                onFailed(listener, e);
+                return;
+            }
+        }
+    }
+
+    private void installDatabase(String fileURL, HttpDownloader downloader, ContentDigest digest,
+                                 HttpDownloader.ProgressCallback callback,
+                                 DownloadMetrics metrics) throws IOException {
+        String path = mDatabasePath + "/" + mName;
+        RemoteValidators validators;
+        if (mStreamingExtraction) {
+            File staged = getStagedFile();
+            downloader.downloadAndExtract(fileURL, staged, callback);
+            validators = downloader.getValidators();
+            installStagedDatabase(staged, metrics);
+        } else {
+            File file = null;
+            validators = null;
+            if (mDownloadSegments > 1) {
+                SegmentedDownloader segmented = new SegmentedDownloader(new File(mDatabasePath + "/"), mDownloadSegments);
+                segmented.setMetrics(metrics);
+                segmented.setRawDestination(getStagedFile());
+                file = segmented.download(fileURL, callback);
+                validators = segmented.getValidators();
+                if (file != null && digest != null) {
+                    // segments arrive out of order, hash the assembled file once
+                    digest.reset();
+                    digest.update(file, file.length());
+                    try {
+                        digest.verify(file.getName());
+                    } catch (IOException e) {
+                        Utils.deleteQuietly(file);
+                        throw e;
+                    }
+                }
+            }
+            if (file == null) {
+                file = downloader.download(fileURL, callback);
+                validators = downloader.getValidators();
+            }
+            if (file.equals(getStagedFile())) {
+                // raw mode, the download already is the staged database
+                installStagedDatabase(file, metrics);
             } else {
-                throw new SQLiteOnlineException
-                        ("No file to download. Server replied HTTP code: " + responseCode);
+                copyDatabaseFromZip(metrics);
+            }
+        }
+        if (validators != null) validators.save(mContext, mName);
+        Utils.setDatabaseVersion(mContext, mName, mNewVersion);
+
+        // switch to the new file right away, the first caller finds it open
+        long start = System.nanoTime();
+        getWritableDatabase();
+        metrics.recordFirstOpen(DownloadMetrics.since(start));
+    }
+
+    /**
+     * @return true if a newer version is expected and an older database is
+     * installed that {@link #syncDatabase} can patch in place of a full download
+     */
+    public boolean shouldSyncDatabase() {
+        return Utils.getDatabaseVersion(mContext, mName) < mNewVersion
+                && new File(mDatabasePath + "/" + mName).exists();
+    }
+
+    /**
+     * Update the installed database to the version described by a block manifest,
+     * fetching only the blocks that changed with ranged requests. The patched
+     * file is built next to the database, verified against the manifest and then
+     * renamed over it. A missing local database is fetched completely.
+     *
+     * @param manifestURL per-block hashes of the new version, see {@link BlockManifest}
+     * @param fileURL     the new database, uncompressed, on a server supporting byte ranges
+     */
+    public void syncDatabase(final String manifestURL, final String fileURL,
+                             final OnFileDownloadListener listener) {
+        enqueue("sync", listener, new DownloadDispatcher.Task() {
+            @Override
+            public void run(OnFileDownloadListener group) {
+                syncFile(manifestURL, fileURL, group);
+            }
+        });
+    }
+
+    private void syncFile(String manifestURL, String fileURL, final OnFileDownloadListener listener) {
+        onStart(listener);
+        String path = mDatabasePath + "/" + mName;
+        File staged = new File(path + ".sync");
+        try {
+            DeltaUpdater updater = new DeltaUpdater();
+            updater.sync(manifestURL, fileURL, new File(path), staged, newProgressCallback(listener));
+            Log.i(TAG, "syncFile: fetched " + updater.getBytesFetched() + " bytes");
+            installStagedDatabase(staged);
+            Utils.setDatabaseVersion(mContext, mName, mNewVersion);
+            onSuccess(listener);
+        } catch (final Exception e) {
+            Log.w(TAG, "syncFile: Failed", e);
+            // the installed database is untouched, only drop the staged copy
+            Utils.deleteQuietly(staged);
+            notifyFailed(listener, e);
+        }
+    }
+
+    /**
+     * Stream a row-level changeset (see {@link ChangesetApplier} for the format)
+     * into the installed database. Rows are written with compiled statements in
+     * transactions of {@code batchSize} operations, and the database version is
+     * only bumped to the changeset's target version once every row is applied.
+     * A changeset compressed with a registered codec ({@code .gz}, ...) is inflated on the fly.
+     */
+    public void applyChangeset(final String changesetURL, final int batchSize,
+                               final OnFileDownloadListener listener) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be >= 1, was " + batchSize);
+        enqueue("changeset", listener, new DownloadDispatcher.Task() {
+            @Override
+            public void run(OnFileDownloadListener group) {
+                applyChangesetFile(changesetURL, batchSize, group);
             }
+        });
+    }
 
+    private void applyChangesetFile(String changesetURL, int batchSize, final OnFileDownloadListener listener) {
+        onStart(listener);
+        HttpURLConnection httpConnection = null;
+        try {
+            httpConnection = HttpDownloader.openConnection(changesetURL);
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new SQLiteOnlineException
+                        ("No changeset to download. Server replied HTTP code: " + responseCode);
+            }
+            long contentLength = HttpDownloader.getContentLength(httpConnection);
+            InputStream in = new CountingInputStream(httpConnection.getInputStream(), contentLength,
+                    newProgressCallback(listener));
+            String fileName = HttpDownloader.getFileName(changesetURL,
+                    httpConnection.getHeaderField("Content-Disposition"));
+            DecompressionCodec codec = Codecs.forFileName(fileName);
+            if (codec != null) in = codec.decode(new BufferedInputStream(in, CopyEngine.INFLATE_BUFFER_SIZE));
+            SQLiteDatabase db = acquireWritableDatabase();
+            try {
+                int version = new ChangesetApplier(db, batchSize).apply(in);
+                Utils.setDatabaseVersion(mContext, mName, version);
+                notifyDatabaseUpdated();
+            } finally {
+                mReferences.release(db);
+                Utils.closeQuietly(in);
+                // even a failed changeset may have committed some batches
+                invalidateQueryCache();
+            }
+            onSuccess(listener);
         } catch (final Exception e) {
-            onFailed(listener, e);
+            Log.w(TAG, "applyChangeset: Failed", e);
+            notifyFailed(listener, e);
         } finally {
             if (httpConnection != null)
                 httpConnection.disconnect();
@@ -462,13 +1306,208 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
     }
     //endregion
 
+    //region Query
+
+    /**
+     * Page through {@code table} in {@link PagedQuery#DEFAULT_PAGE_SIZE} rows
+     * by rowid.
+     *
+     * @param columns to read, null for all
+     */
+    public <T> PagedQuery<T> pagedQuery(String table, String[] columns, RowMapper<T> mapper) {
+        return pagedQuery(table, columns, null, null, null, PagedQuery.DEFAULT_PAGE_SIZE, mapper);
+    }
+
+    /**
+     * Page through the rows of {@code table} matching {@code selection}, ordered
+     * by {@code keyColumn}. Rows are read from {@link #getReadableDatabase} one
+     * page at a time through {@link #cachedQuery}, nothing is queried until
+     * the first page is requested.
+     *
+     * @param columns       to read, null for all
+     * @param selection     a WHERE clause without the keyword, or null for all rows
+     * @param selectionArgs replace the {@code ?}s in {@code selection}
+     * @param keyColumn     unique, non-null column to page by, null for {@code rowid}
+     * @param pageSize      rows per page
+     */
+    public <T> PagedQuery<T> pagedQuery(String table, String[] columns, String selection,
+                                        String[] selectionArgs, String keyColumn, int pageSize,
+                                        RowMapper<T> mapper) {
+        return new PagedQuery<>(this, table, columns, selection, selectionArgs, keyColumn, pageSize, mapper);
+    }
+
+    /**
+     * Keep the results of {@link #cachedQuery} in memory, up to an estimated
+     * {@code maxBytes}. The cache is cleared whenever the database is replaced,
+     * upgraded or patched by a changeset.
+     *
+     * @param maxBytes memory budget, 0 to disable and drop the current cache
+     */
+    public void setQueryCacheSize(int maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("maxBytes must be >= 0, was " + maxBytes);
+        mQueryCache = maxBytes > 0 ? new QueryCache(maxBytes) : null;
+    }
+
+    /**
+     * Run a read query through the result cache (see {@link #setQueryCacheSize}).
+     * A miss reads the whole result into memory before returning it. Without a
+     * cache this is {@code rawQuery(sql, selectionArgs)} on an
+     * {@link #acquireReadableDatabase acquired} database, released when the
+     * cursor is closed.
+     */
+    public Cursor cachedQuery(String sql, String[] selectionArgs) {
+        QueryCache cache = mQueryCache;
+        if (cache == null) {
+            SQLiteDatabase db = acquireReadableDatabase();
+            boolean success = false;
+            try {
+                Cursor cursor = mReferences.releaseOnClose(db.rawQuery(sql, selectionArgs), db);
+                success = true;
+                return cursor;
+            } finally {
+                if (!success) mReferences.release(db);
+            }
+        }
+        Cursor cached = cache.get(sql, selectionArgs);
+        if (cached != null) return cached;
+        int generation = cache.getGeneration();
+        SQLiteDatabase db = acquireReadableDatabase();
+        try {
+            Cursor cursor = db.rawQuery(sql, selectionArgs);
+            try {
+                return cache.put(generation, sql, selectionArgs, cursor);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mReferences.release(db);
+        }
+    }
+
+    /**
+     * Keep up to {@code size} compiled statements per connection in the
+     * framework's prepared statement cache, which serves {@link Lookup}s and
+     * {@code rawQuery} SQL alike. Takes effect for connections opened
+     * afterwards. Defaults to 25.
+     *
+     * @param size 1 to {@link SQLiteDatabase#MAX_SQL_CACHE_SIZE}
+     */
+    public synchronized void setStatementCacheSize(int size) {
+        if (size < 1 || size > SQLiteDatabase.MAX_SQL_CACHE_SIZE) {
+            throw new IllegalArgumentException("size must be 1 to " + SQLiteDatabase.MAX_SQL_CACHE_SIZE + ", was " + size);
+        }
+        mStatementCacheSize = size;
+    }
+
+    /**
+     * Start a parameterized lookup, see {@link Lookup}.
+     *
+     * @param sql a query with {@code ?} placeholders for the arguments
+     */
+    public Lookup lookup(String sql) {
+        return new Lookup(this, sql);
+    }
+
+    /**
+     * Forget all cached results, e.g. after writing to the database directly.
+     */
+    public void invalidateQueryCache() {
+        QueryCache cache = mQueryCache;
+        if (cache != null) cache.invalidate();
+    }
+    //endregion
+
     //region DownloadListener
-    private void runOnUiThread(Runnable runnable) {
-        ((Activity) mContext).runOnUiThread(runnable);
+    /**
+     * Set the executor {@link OnFileDownloadListener} callbacks are delivered on,
+     * see {@link CallbackExecutors}. Defaults to the main thread, so the helper
+     * works with any {@link Context}, not only an {@link android.app.Activity}.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        if (callbackExecutor == null) throw new IllegalArgumentException("callbackExecutor cannot be null");
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Progress is reported only when the integer percentage changes; with an
+     * interval, also at most once per {@code intervalMillis}. The final 100% is
+     * always reported.
+     */
+    public void setProgressInterval(long intervalMillis) {
+        if (intervalMillis < 0) throw new IllegalArgumentException("intervalMillis must be >= 0");
+        mProgressIntervalMillis = intervalMillis;
+    }
+
+    private HttpDownloader.ProgressCallback newProgressCallback(final OnFileDownloadListener listener) {
+        final ProgressThrottle throttle = new ProgressThrottle(mProgressIntervalMillis);
+        return new HttpDownloader.ProgressCallback() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+                int progress = throttle.update(downloaded, total);
+                if (progress >= 0) SQLiteOnlineHelper.this.onProgress(listener, progress);
+            }
+        };
+    }
+
+    /**
+     * Receive a {@link DownloadMetrics} snapshot at the end of every
+     * {@link #downloadDatabase} run, on the callback executor.
+     */
+    public void setMetricsListener(OnDownloadMetricsListener metricsListener) {
+        mMetricsListener = metricsListener;
+    }
+
+    /**
+     * @return metrics of the last finished {@link #downloadDatabase} run, or null
+     */
+    public DownloadMetrics getLastDownloadMetrics() {
+        return mLastMetrics;
+    }
+
+    private void publishMetrics(final DownloadMetrics metrics) {
+        Log.i(TAG, "downloadFile: " + metrics);
+        mLastMetrics = metrics;
+        final OnDownloadMetricsListener metricsListener = mMetricsListener;
+        if (metricsListener == null) return;
+        postCallback(new Runnable() {
+            @Override
+            public void run() {
+                metricsListener.onDownloadMetrics(metrics);
+            }
+        });
+    }
+
+    /**
+     * Be told on the callback executor whenever a new database was installed or
+     * a changeset applied, e.g. to reload what is on screen after
+     * {@link #revalidate}. Keep a reference to remove it again.
+     */
+    public void addOnDatabaseUpdatedListener(OnDatabaseUpdatedListener listener) {
+        if (listener == null) throw new IllegalArgumentException("listener cannot be null");
+        mUpdatedListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnDatabaseUpdatedListener(OnDatabaseUpdatedListener listener) {
+        mUpdatedListeners.remove(listener);
+    }
+
+    private void notifyDatabaseUpdated() {
+        if (mUpdatedListeners.isEmpty()) return;
+        postCallback(new Runnable() {
+            @Override
+            public void run() {
+                for (OnDatabaseUpdatedListener listener : mUpdatedListeners)
+                    listener.onDatabaseUpdated();
+            }
+        });
+    }
+
+    void postCallback(Runnable runnable) {
+        mCallbackExecutor.execute(runnable);
     }
 
     private void onStart(final OnFileDownloadListener listener) {
-        runOnUiThread(new Runnable() {
+        postCallback(new Runnable() {
             @Override
             public void run() {
                 if (listener != null)
@@ -478,7 +1517,7 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
     }
 
     private void onProgress(final OnFileDownloadListener listener, final int progress) {
-        runOnUiThread(new Runnable() {
+        postCallback(new Runnable() {
             @Override
             public void run() {
                 if (listener != null)
@@ -490,8 +1529,16 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
     private void onFailed(final OnFileDownloadListener listener, final Exception e) {
         Log.w(TAG, "downloadFile: Failed", e);
         String path = mDatabasePath + "/" + mName;
-        Utils.deleteDatabaseFiles(path);
-        runOnUiThread(new Runnable() {
+        if (mResumeEnabled && ResumeInfo.getFile(path).exists()) {
+            Log.i(TAG, "downloadFile: keeping partial download for resume");
+        } else {
+            Utils.deleteDownloadFiles(path);
+        }
+        notifyFailed(listener, e);
+    }
+
+    private void notifyFailed(final OnFileDownloadListener listener, final Exception e) {
+        postCallback(new Runnable() {
             @Override
             public void run() {
                 if (listener != null)
@@ -501,7 +1548,7 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
     }
 
     private void onSuccess(final OnFileDownloadListener listener) {
-        runOnUiThread(new Runnable() {
+        postCallback(new Runnable() {
             @Override
             public void run() {
                 if (listener != null)
@@ -519,6 +1566,14 @@ public class SQLiteOnlineHelper extends SQLiteOpenHelper {
 
         void onDownloadSuccess();
     }
+
+    public interface OnDownloadMetricsListener {
+        void onDownloadMetrics(DownloadMetrics metrics);
+    }
+
+    public interface OnDatabaseUpdatedListener {
+        void onDatabaseUpdated();
+    }
     //endregion
 
     //region SQLite Exception
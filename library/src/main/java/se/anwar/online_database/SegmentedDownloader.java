@@ -0,0 +1,306 @@
+package se.anwar.online_database;
+
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * Downloads a file over several connections at once, each fetching its own byte
+ * range and writing it at its offset in a preallocated file. A segment that
+ * fails or arrives short is fetched again on its own. When the server sends a
+ * {@code Content-MD5} with a range, the segment is hashed while it is received
+ * and a mismatch is fetched again too; otherwise corruption is only caught by
+ * the expected digest of the whole file, if the caller has one.
+ * <p>
+ * Segments of every download share one bounded pool of connections.
+ */
+class SegmentedDownloader {
+
+    private static final String TAG = "SegmentedDownloader_Log";
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_SEGMENT_ATTEMPTS = 3;
+    private static final int MAX_SEGMENT_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+
+    private final File mDirectory;
+    private final int mSegments;
+    private RemoteValidators mValidators;
+    private DownloadMetrics mMetrics;
+    private File mRawDestination;
+
+    SegmentedDownloader(File directory, int segments) {
+        mDirectory = directory;
+        mSegments = segments;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_SEGMENT_CONNECTIONS, MAX_SEGMENT_CONNECTIONS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "SQLiteOnline-segment-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    void setMetrics(DownloadMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    RemoteValidators getValidators() {
+        return mValidators;
+    }
+
+    /**
+     * @see HttpDownloader#setRawDestination
+     */
+    void setRawDestination(File file) {
+        mRawDestination = file;
+    }
+
+    /**
+     * @return the downloaded file, or null if the server does not support
+     * byte ranges or doesn't answer the {@code HEAD} request, and the caller
+     * should fall back to a single stream
+     */
+    File download(String fileURL, HttpDownloader.ProgressCallback callback) throws IOException {
+        HttpURLConnection httpConnection = HttpDownloader.openConnection(fileURL);
+        String fileName;
+        String validator;
+        long total;
+        try {
+            httpConnection.setRequestMethod("HEAD");
+            int responseCode = HttpDownloader.execute(httpConnection, mMetrics);
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                // some servers only answer GET, let the single stream find out
+                Log.i(TAG, "download: HEAD replied HTTP code " + responseCode + ", using a single stream");
+                return null;
+            }
+            total = HttpDownloader.getContentLength(httpConnection);
+            String acceptRanges = httpConnection.getHeaderField("Accept-Ranges");
+            if (total <= 0 || acceptRanges == null || !acceptRanges.contains("bytes")) {
+                Log.i(TAG, "download: server does not accept ranges, using a single stream");
+                return null;
+            }
+            mValidators = RemoteValidators.from(fileURL, httpConnection);
+            fileName = HttpDownloader.getFileName(fileURL, httpConnection.getHeaderField("Content-Disposition"));
+            if (mRawDestination != null && (Codecs.isDatabaseType(httpConnection.getContentType())
+                    || Codecs.forFileName(fileName) == null)) {
+                // not an archive we could extract by name, most likely the database itself;
+                // keep it off the installed file, installing it checks it is a database
+                fileName = mRawDestination.getName();
+            }
+            validator = httpConnection.getHeaderField("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                validator = httpConnection.getHeaderField("Last-Modified");
+            }
+        } finally {
+            httpConnection.disconnect();
+        }
+
+        int count = (int) Math.max(1, Math.min(mSegments, total / MIN_SEGMENT_SIZE));
+        Log.i(TAG, "download: " + fileName + " (" + total + " bytes) in " + count + " segments");
+
+        if (!mDirectory.exists()) {
+            boolean mkdir = mDirectory.mkdir();
+            Log.i(TAG, "download: mkdir " + mkdir);
+        }
+        File file = new File(mDirectory, fileName);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        List<Future<Boolean>> futures = new ArrayList<>();
+        try {
+            raf.setLength(total);
+            FileChannel channel = raf.getChannel();
+            AtomicLong downloaded = new AtomicLong();
+            long transferStart = System.nanoTime();
+
+            List<Segment> pending = new ArrayList<>();
+            long size = total / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * size;
+                long end = i == count - 1 ? total - 1 : start + size - 1;
+                pending.add(new Segment(start, end));
+            }
+
+            for (int attempt = 1; !pending.isEmpty(); attempt++) {
+                if (attempt > MAX_SEGMENT_ATTEMPTS) {
+                    throw new IOException(pending.size() + " segment(s) of " + fileName + " failed after "
+                            + MAX_SEGMENT_ATTEMPTS + " attempts");
+                }
+                futures.clear();
+                for (Segment segment : pending) {
+                    futures.add(sExecutor.submit(new SegmentTask(fileURL, validator, segment,
+                            channel, downloaded, total, callback, mMetrics)));
+                }
+                List<Segment> failed = new ArrayList<>();
+                for (int i = 0; i < futures.size(); i++) {
+                    if (!await(futures.get(i))) {
+                        downloaded.addAndGet(-pending.get(i).received);
+                        failed.add(pending.get(i));
+                    }
+                }
+                pending = failed;
+            }
+            // segments overlap in time, so the transfer phase is the wall clock of all of them
+            if (mMetrics != null) mMetrics.recordTransfer(System.nanoTime() - transferStart);
+            channel.force(false);
+            Log.i(TAG, "File downloaded");
+            return file;
+        } finally {
+            // on failure, stop the other segments of this download, the pool is shared
+            for (Future<Boolean> future : futures) future.cancel(true);
+            Utils.closeQuietly(raf);
+        }
+    }
+
+    private static boolean await(Future<Boolean> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Segmented download interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLiteOnlineException) throw (SQLiteOnlineException) cause;
+            Log.w(TAG, "await: segment failed", cause);
+            return false;
+        }
+    }
+
+    private static class Segment {
+        final long start;
+        final long end;
+        long received;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    private static class SegmentTask implements Callable<Boolean> {
+        private final String mFileURL;
+        private final String mValidator;
+        private final Segment mSegment;
+        private final FileChannel mChannel;
+        private final AtomicLong mDownloaded;
+        private final long mTotal;
+        private final HttpDownloader.ProgressCallback mCallback;
+        private final DownloadMetrics mMetrics;
+
+        SegmentTask(String fileURL, String validator, Segment segment, FileChannel channel,
+                    AtomicLong downloaded, long total, HttpDownloader.ProgressCallback callback,
+                    DownloadMetrics metrics) {
+            mFileURL = fileURL;
+            mValidator = validator;
+            mSegment = segment;
+            mChannel = channel;
+            mDownloaded = downloaded;
+            mTotal = total;
+            mCallback = callback;
+            mMetrics = metrics;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            mSegment.received = 0;
+            HttpURLConnection httpConnection = HttpDownloader.openConnection(mFileURL);
+            try {
+                httpConnection.setRequestProperty("Range", "bytes=" + mSegment.start + "-" + mSegment.end);
+                if (mValidator != null) httpConnection.setRequestProperty("If-Range", mValidator);
+                int responseCode = httpConnection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL
+                        || HttpDownloader.getContentRangeStart(httpConnection) != mSegment.start) {
+                    // the file changed on the server since we started, mixing versions would corrupt it
+                    throw new SQLiteOnlineException("Segment " + mSegment.start + "-" + mSegment.end
+                            + " not served as a range, HTTP code: " + responseCode);
+                }
+
+                String expected = httpConnection.getHeaderField("Content-MD5");
+                MessageDigest md5 = expected == null ? null : newMd5();
+                InputStream inputStream = httpConnection.getInputStream();
+                byte[] buffer = CopyEngine.acquire(CopyEngine.NETWORK_BUFFER_SIZE);
+                try {
+                    long position = mSegment.start;
+                    int bytesRead;
+                    while (position <= mSegment.end
+                            && (bytesRead = inputStream.read(buffer, 0,
+                            (int) Math.min(buffer.length, mSegment.end - position + 1))) != -1) {
+                        ByteBuffer source = ByteBuffer.wrap(buffer, 0, bytesRead);
+                        while (source.hasRemaining()) {
+                            position += mChannel.write(source, position);
+                        }
+                        if (md5 != null) md5.update(buffer, 0, bytesRead);
+                        mSegment.received += bytesRead;
+                        if (mMetrics != null) mMetrics.recordBytes(bytesRead);
+                        long downloaded = mDownloaded.addAndGet(bytesRead);
+                        if (mCallback != null) mCallback.onProgress(downloaded, mTotal);
+                    }
+                } finally {
+                    CopyEngine.release(buffer);
+                    Utils.closeQuietly(inputStream);
+                }
+                if (mSegment.received != mSegment.length()) {
+                    Log.w(TAG, "call: segment " + mSegment.start + "-" + mSegment.end + " is short, "
+                            + mSegment.received + " bytes");
+                    return false;
+                }
+                if (md5 != null) {
+                    String actual = Base64.encodeToString(md5.digest(), Base64.NO_WRAP);
+                    if (!actual.equals(expected.trim())) {
+                        Log.w(TAG, "call: Content-MD5 mismatch in segment " + mSegment.start + "-" + mSegment.end);
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                httpConnection.disconnect();
+            }
+        }
+
+        private static MessageDigest newMd5() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 not available", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package se.anwar.online_database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import se.anwar.online_database.SQLiteOnlineHelper.OnFileDownloadListener;
+
+/**
+ * Several databases that are downloaded and versioned independently but
+ * queried through one connection: every shard is attached to the main
+ * database under its alias, so {@code SELECT title FROM europe.book} reads
+ * the "europe" shard, and a query can join across shards.
+ * <pre>
+ * ShardedDatabase shards = new ShardedDatabase(mainHelper)
+ *         .addShard("europe", new SQLiteOnlineHelper(context, "europe.db", null, 3), EUROPE_URL)
+ *         .addShard("asia", new SQLiteOnlineHelper(context, "asia.db", null, 1), ASIA_URL);
+ * shards.downloadShard("europe", listener); // what the first screen reads
+ * shards.downloadShards(null);              // the rest, in parallel
+ * </pre>
+ * A shard that isn't installed yet is simply not attached; once its download
+ * completes, the main helper reopens its connection with it attached and
+ * notifies its {@link SQLiteOnlineHelper.OnDatabaseUpdatedListener}s.
+ * Android turns write-ahead logging off on connections with attached
+ * databases, so the main helper can't use
+ * {@link SQLiteOnlineHelper#setConcurrentReads} or
+ * {@link OpenOptions.JournalMode#WAL}.
+ */
+public class ShardedDatabase {
+
+    private static final String TAG = "ShardedDatabase_Log";
+    private static final Pattern ALIAS = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final SQLiteOnlineHelper mMain;
+    private final Map<String, Shard> mShards = new LinkedHashMap<>();
+
+    /**
+     * @param main the database shards are attached to; may be a downloaded
+     *             database itself or a small local one
+     */
+    public ShardedDatabase(SQLiteOnlineHelper main) {
+        if (main == null) throw new IllegalArgumentException("main cannot be null");
+        mMain = main;
+    }
+
+    /**
+     * @param alias   schema name of the shard in queries
+     * @param shard   helper managing the shard's file and version
+     * @param fileURL where {@link #downloadShard} fetches the shard from
+     */
+    public synchronized ShardedDatabase addShard(String alias, SQLiteOnlineHelper shard, String fileURL) {
+        if (alias == null || !ALIAS.matcher(alias).matches())
+            throw new IllegalArgumentException("alias must be a plain identifier, was " + alias);
+        if (alias.equalsIgnoreCase("main") || alias.equalsIgnoreCase("temp"))
+            throw new IllegalArgumentException("alias " + alias + " is reserved by SQLite");
+        if (mShards.containsKey(alias)) throw new IllegalArgumentException("Duplicate shard " + alias);
+        if (shard == null || shard == mMain) throw new IllegalArgumentException("Invalid shard for " + alias);
+        mMain.attachShard(alias, shard);
+        mShards.put(alias, new Shard(shard, fileURL));
+        return this;
+    }
+
+    public synchronized SQLiteOnlineHelper getShard(String alias) {
+        return requireShard(alias).helper;
+    }
+
+    /**
+     * @return true if the shard isn't installed or is older than its helper's
+     * version; unlike {@link SQLiteOnlineHelper#shouldDownloadDatabase()} this
+     * deletes nothing, so it is safe while the shard is downloading
+     */
+    public boolean shouldDownloadShard(String alias) {
+        return getShard(alias).isDatabaseOutdated();
+    }
+
+    public void downloadShard(String alias, OnFileDownloadListener listener) {
+        Shard shard;
+        synchronized (this) {
+            shard = requireShard(alias);
+        }
+        shard.helper.downloadDatabase(shard.fileURL, listener);
+    }
+
+    /**
+     * Download every shard that {@link SQLiteOnlineHelper#shouldDownloadDatabase()}
+     * in parallel, as many at a time as
+     * {@link SQLiteOnlineHelper#setMaxConcurrentDownloads} allows. Each shard is
+     * checked in its own download slot, so a check never deletes the files of a
+     * download in flight; up-to-date shards count as finished. The listener
+     * sees them as one download: progress is the average over the shards, and it
+     * succeeds or fails once, after the last shard finished. Shards that did
+     * download are installed even if another one failed.
+     */
+    public void downloadShards(final OnFileDownloadListener listener) {
+        List<Shard> shards;
+        synchronized (this) {
+            shards = new ArrayList<>(mShards.values());
+        }
+        if (shards.isEmpty()) {
+            Log.i(TAG, "downloadShards: no shards");
+            mMain.postCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (listener != null) listener.onDownloadSuccess();
+                }
+            });
+            return;
+        }
+        CombinedListener combined = new CombinedListener(listener, shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            shard.helper.downloadIfOutdated(shard.fileURL, combined.forShard(i));
+        }
+    }
+
+    /**
+     * @return the main database with all installed shards attached
+     */
+    public SQLiteDatabase getReadableDatabase() {
+        return mMain.getReadableDatabase();
+    }
+
+    public SQLiteDatabase getWritableDatabase() {
+        return mMain.getWritableDatabase();
+    }
+
+    private Shard requireShard(String alias) {
+        Shard shard = mShards.get(alias);
+        if (shard == null) throw new IllegalArgumentException("Unknown shard " + alias);
+        return shard;
+    }
+
+    private static class Shard {
+        final SQLiteOnlineHelper helper;
+        final String fileURL;
+
+        Shard(SQLiteOnlineHelper helper, String fileURL) {
+            this.helper = helper;
+            this.fileURL = fileURL;
+        }
+    }
+
+    /**
+     * Reports the downloads of several shards to one listener.
+     */
+    private static class CombinedListener {
+        private final OnFileDownloadListener mListener;
+        private final int[] mProgress;
+        private int mRemaining;
+        private boolean mStarted = false;
+        private int mReported = -1;
+        private Exception mError;
+
+        CombinedListener(OnFileDownloadListener listener, int shards) {
+            mListener = listener;
+            mProgress = new int[shards];
+            mRemaining = shards;
+        }
+
+        OnFileDownloadListener forShard(final int index) {
+            return new OnFileDownloadListener() {
+                @Override
+                public void onDownloadStart() {
+                    onStart();
+                }
+
+                @Override
+                public void onDownloadProgress(int progress) {
+                    onProgress(index, progress);
+                }
+
+                @Override
+                public void onDownloadFailed(Exception e) {
+                    onFinished(index, e);
+                }
+
+                @Override
+                public void onDownloadSuccess() {
+                    onFinished(index, null);
+                }
+            };
+        }
+
+        private synchronized void onStart() {
+            if (mStarted) return;
+            mStarted = true;
+            if (mListener != null) mListener.onDownloadStart();
+        }
+
+        private synchronized void onProgress(int index, int progress) {
+            mProgress[index] = progress;
+            long sum = 0;
+            for (int p : mProgress) sum += p;
+            int combined = (int) (sum / mProgress.length);
+            if (combined == mReported) return;
+            mReported = combined;
+            if (mListener != null) mListener.onDownloadProgress(combined);
+        }
+
+        private synchronized void onFinished(int index, Exception e) {
+            if (e == null) {
+                onProgress(index, 100);
+            } else if (mError == null) {
+                mError = e;
+            }
+            if (--mRemaining > 0 || mListener == null) return;
+            if (mError != null) {
+                mListener.onDownloadFailed(mError);
+            } else {
+                mListener.onDownloadSuccess();
+            }
+        }
+    }
+}
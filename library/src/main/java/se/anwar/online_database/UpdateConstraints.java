@@ -0,0 +1,100 @@
+package se.anwar.online_database;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+
+/**
+ * Conditions a background update has to wait for, see
+ * {@link SQLiteOnlineHelper#revalidate}.
+ * <pre>
+ * UpdateConstraints constraints = new UpdateConstraints.Builder()
+ *         .setRequiresUnmeteredNetwork(true)
+ *         .setRequiresIdle(true)
+ *         .build();
+ * </pre>
+ */
+public final class UpdateConstraints {
+
+    /**
+     * Update as soon as possible.
+     */
+    public static final UpdateConstraints NONE = new Builder().build();
+
+    private final boolean mRequiresUnmeteredNetwork;
+    private final boolean mRequiresCharging;
+    private final boolean mRequiresIdle;
+
+    private UpdateConstraints(Builder builder) {
+        mRequiresUnmeteredNetwork = builder.mRequiresUnmeteredNetwork;
+        mRequiresCharging = builder.mRequiresCharging;
+        mRequiresIdle = builder.mRequiresIdle;
+    }
+
+    boolean requiresIdle() {
+        return mRequiresIdle;
+    }
+
+    /**
+     * @return true if the network and power conditions hold right now
+     */
+    boolean areMet(Context context) {
+        if (mRequiresUnmeteredNetwork && !isUnmetered(context)) return false;
+        return !mRequiresCharging || isCharging(context);
+    }
+
+    private static boolean isUnmetered(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm != null ? cm.getActiveNetworkInfo() : null;
+        if (info == null || !info.isConnected()) return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) return !cm.isActiveNetworkMetered();
+        return info.getType() == ConnectivityManager.TYPE_WIFI
+                || info.getType() == ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    private static boolean isCharging(Context context) {
+        // sticky broadcast, no receiver is registered
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    public static final class Builder {
+        private boolean mRequiresUnmeteredNetwork = false;
+        private boolean mRequiresCharging = false;
+        private boolean mRequiresIdle = false;
+
+        /**
+         * Wait for Wi-Fi or another network that isn't metered.
+         * Needs the {@code ACCESS_NETWORK_STATE} permission, merged from the library manifest.
+         */
+        public Builder setRequiresUnmeteredNetwork(boolean requiresUnmeteredNetwork) {
+            mRequiresUnmeteredNetwork = requiresUnmeteredNetwork;
+            return this;
+        }
+
+        /**
+         * Wait until the device is plugged in.
+         */
+        public Builder setRequiresCharging(boolean requiresCharging) {
+            mRequiresCharging = requiresCharging;
+            return this;
+        }
+
+        /**
+         * Wait until the main thread is idle, so the check does not compete with
+         * the app's startup work.
+         */
+        public Builder setRequiresIdle(boolean requiresIdle) {
+            mRequiresIdle = requiresIdle;
+            return this;
+        }
+
+        public UpdateConstraints build() {
+            return new UpdateConstraints(this);
+        }
+    }
+}
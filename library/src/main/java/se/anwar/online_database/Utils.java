@@ -4,12 +4,17 @@ import android.content.Context;
 import android.util.Log;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -19,30 +24,44 @@ class Utils {
     private static final String VERSIONS_FILE = "version.txt";
 
     public static void writeExtractedFileToDisk(InputStream in, OutputStream outs) throws IOException {
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = in.read(buffer)) > 0) {
-            outs.write(buffer, 0, length);
-        }
+        CopyEngine.copy(in, outs, CopyEngine.INFLATE_BUFFER_SIZE);
         outs.flush();
         outs.close();
         in.close();
     }
 
+    public static void writeExtractedFileToDisk(InputStream in, FileOutputStream outs, FsyncPolicy policy) throws IOException {
+        try {
+            CopyEngine.copy(in, outs, CopyEngine.INFLATE_BUFFER_SIZE);
+            outs.flush();
+            CopyEngine.sync(outs, policy);
+        } finally {
+            closeQuietly(in);
+            outs.close();
+        }
+    }
+
     public static ZipInputStream getFileFromZip(InputStream zipFileStream) throws IOException {
         ZipInputStream zis = new ZipInputStream(zipFileStream);
         ZipEntry ze;
-        if ((ze = zis.getNextEntry()) != null) {
+        while ((ze = zis.getNextEntry()) != null) {
+            // a streamed bundle only yields its database, see ZipBundle
+            if (ze.isDirectory() || ze.getName().equals(ZipBundle.MANIFEST_ENTRY)) continue;
             Log.w(TAG, "extracting file: '" + ze.getName() + "'...");
             return zis;
         }
         return null;
     }
 
-    public static void setDatabaseVersion(Context context, int version) {
+    /**
+     * Remember the version of the installed database {@code name}. Each
+     * database keeps its own file, so helpers for different files don't
+     * overwrite each other's version.
+     */
+    public static void setDatabaseVersion(Context context, String name, int version) {
         File cacheDir = new File(context.getApplicationInfo().dataDir + "/cache");
         if (!cacheDir.exists()) cacheDir.mkdir();
-        File file = new File(cacheDir, VERSIONS_FILE);
+        File file = new File(cacheDir, name + "." + VERSIONS_FILE);
         try {
             BufferedWriter writer = new BufferedWriter(new FileWriter(file, false));
             writer.write(version + "");
@@ -54,25 +73,98 @@ class Utils {
 
     }
 
-    public static int getDatabaseVersion(Context context) {
-        String path = context.getApplicationInfo().dataDir + "/cache/" + VERSIONS_FILE;
+    public static int getDatabaseVersion(Context context, String name) {
+        String cacheDir = context.getApplicationInfo().dataDir + "/cache/";
+        File file = new File(cacheDir + name + "." + VERSIONS_FILE);
+        if (!file.exists()) {
+            // written by older releases, shared by all databases
+            file = new File(cacheDir + VERSIONS_FILE);
+        }
+        Scanner scanner = null;
         try {
-            File file = new File(path);
-            String line = new Scanner(file).useDelimiter("\\A").next();
+            scanner = new Scanner(file);
+            String line = scanner.useDelimiter("\\A").next();
             return Integer.parseInt(line);
         } catch (Exception e) {
             Log.w(TAG, "getDatabaseVersion: ", e);
             return 0;
+        } finally {
+            if (scanner != null) scanner.close();
         }
     }
 
     public static void deleteDatabaseFiles(String path) {
         try {
             new File(path).delete();
-            new File(path + ".zip").delete();
-            new File(path + ".gz").delete();
+            for (String extension : Codecs.getExtensions()) new File(path + extension).delete();
+            ResumeInfo.getFile(path).delete();
         } catch (Exception e) {
             Log.w(TAG, "deleteDatabaseFiles: failed delete old files", e);
         }
     }
+
+    public static void copyFile(File source, File destination) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = new FileOutputStream(destination);
+        try {
+            CopyEngine.transfer(in.getChannel(), out.getChannel());
+        } finally {
+            closeQuietly(in);
+            out.close();
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Delete archives, partial and staged files of a download, keeping the
+     * installed database itself.
+     */
+    public static void deleteDownloadFiles(String path) {
+        for (String extension : Codecs.getExtensions()) deleteQuietly(new File(path + extension));
+        deleteQuietly(new File(path + ".tmp"));
+        deleteQuietly(new File(path + ".sync"));
+        deleteQuietly(new File(path + ".deferred"));
+        deleteQuietly(ResumeInfo.getFile(path));
+    }
+
+    public static void deleteQuietly(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            Log.w(TAG, "deleteQuietly: could not delete " + file);
+        }
+    }
+
+    /**
+     * Wait for a task of a parallel extraction, rethrowing what it threw.
+     */
+    static void await(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Extraction interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "closeQuietly: ", e);
+        }
+    }
 }
@@ -0,0 +1,218 @@
+package se.anwar.online_database;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+/**
+ * Extracts every entry of a zip archive on disk: the database plus companion
+ * files such as an FTS index, shards or media. Entries are read through the
+ * central directory, so independent entries are inflated in parallel, one
+ * worker per core. An optional {@value #MANIFEST_ENTRY} entry maps entries to
+ * destinations relative to the database directory:
+ * <pre>
+ * # entry destination
+ * books.db books.db
+ * index/fts.db books_fts.db
+ * </pre>
+ * Entries it doesn't list are skipped. Without it, the first file is the
+ * database, as before, and the other files keep their paths.
+ */
+class ZipBundle {
+
+    static final String MANIFEST_ENTRY = "bundle.manifest";
+    private static final String TAG = "ZipBundle_Log";
+    private static final String STAGED_EXTENSION = ".tmp";
+
+    private final File mArchive;
+    private final File mDirectory;
+    private final String mDatabaseName;
+    private final File mDatabaseStaged;
+    /**
+     * Staged companion file to its destination, filled by {@link #extract}.
+     */
+    private final Map<File, File> mCompanions = new LinkedHashMap<>();
+
+    ZipBundle(File archive, File directory, String databaseName, File databaseStaged) {
+        mArchive = archive;
+        mDirectory = directory;
+        mDatabaseName = databaseName;
+        mDatabaseStaged = databaseStaged;
+    }
+
+    /**
+     * Write the database entry to the staged database file and the companions
+     * next to their destinations. Nothing is installed yet.
+     */
+    void extract(FsyncPolicy policy) throws IOException {
+        ZipFile zip = new ZipFile(mArchive);
+        boolean success = false;
+        try {
+            Map<ZipEntry, File> targets = mapEntries(zip);
+            if (!targets.containsValue(mDatabaseStaged)) {
+                throw new SQLiteOnlineException("Archive is missing a SQLite database file");
+            }
+            extractAll(zip, targets, policy);
+            success = true;
+        } finally {
+            if (!success) discard();
+            // ZipFile only implements Closeable from API 19
+            try {
+                zip.close();
+            } catch (IOException e) {
+                Log.w(TAG, "extract: ", e);
+            }
+        }
+    }
+
+    /**
+     * Move the companion files into place, once the database was installed.
+     */
+    void installCompanions() {
+        for (Map.Entry<File, File> companion : mCompanions.entrySet()) {
+            if (!companion.getKey().renameTo(companion.getValue())) {
+                Utils.deleteQuietly(companion.getKey());
+                throw new SQLiteOnlineException("Unable to move " + companion.getKey() + " to " + companion.getValue());
+            }
+        }
+        Log.i(TAG, "installCompanions: " + mCompanions.size() + " companion file(s)");
+    }
+
+    /**
+     * Delete the staged companion files, e.g. when the database turned out invalid.
+     */
+    void discard() {
+        for (File staged : mCompanions.keySet()) Utils.deleteQuietly(staged);
+    }
+
+    private Map<ZipEntry, File> mapEntries(ZipFile zip) throws IOException {
+        Map<ZipEntry, File> targets = new LinkedHashMap<>();
+        ZipEntry manifest = zip.getEntry(MANIFEST_ENTRY);
+        if (manifest != null) {
+            for (Map.Entry<String, String> mapping : readManifest(zip, manifest).entrySet()) {
+                ZipEntry entry = zip.getEntry(mapping.getKey());
+                if (entry == null || entry.isDirectory()) {
+                    throw new SQLiteOnlineException("Bundle manifest lists missing entry " + mapping.getKey());
+                }
+                targets.put(entry, stage(mapping.getValue()));
+            }
+            return targets;
+        }
+        boolean first = true;
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            // resource forks added by the macOS archiver
+            if (entry.isDirectory() || entry.getName().startsWith("__MACOSX/")) continue;
+            targets.put(entry, stage(first ? mDatabaseName : entry.getName()));
+            first = false;
+        }
+        return targets;
+    }
+
+    private static Map<String, String> readManifest(ZipFile zip, ZipEntry manifest) throws IOException {
+        Map<String, String> mappings = new LinkedHashMap<>();
+        InputStream in = zip.getInputStream(manifest);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+");
+                mappings.put(fields[0], fields.length > 1 ? fields[1] : fields[0]);
+            }
+        } finally {
+            Utils.closeQuietly(in);
+        }
+        return mappings;
+    }
+
+    /**
+     * @return where the entry for {@code destination} is written before it's installed
+     */
+    private File stage(String destination) throws IOException {
+        if (destination.equals(mDatabaseName)) return mDatabaseStaged;
+        File file = new File(mDirectory, destination);
+        // reject "../" and absolute names that would escape the database directory
+        String root = mDirectory.getCanonicalPath() + File.separator;
+        if (!file.getCanonicalPath().startsWith(root)) {
+            throw new SQLiteOnlineException("Bundle entry " + destination + " points outside " + mDirectory);
+        }
+        File staged = new File(file.getPath() + STAGED_EXTENSION);
+        mCompanions.put(staged, file);
+        return staged;
+    }
+
+    private static void extractAll(final ZipFile zip, Map<ZipEntry, File> targets, final FsyncPolicy policy)
+            throws IOException {
+        List<Map.Entry<ZipEntry, File>> pending = new ArrayList<>(targets.entrySet());
+        // largest first, so one big entry doesn't start last and run alone
+        Collections.sort(pending, new Comparator<Map.Entry<ZipEntry, File>>() {
+            @Override
+            public int compare(Map.Entry<ZipEntry, File> a, Map.Entry<ZipEntry, File> b) {
+                long sizeA = a.getKey().getSize();
+                long sizeB = b.getKey().getSize();
+                return sizeA < sizeB ? 1 : sizeA > sizeB ? -1 : 0;
+            }
+        });
+        int workers = Math.min(pending.size(), Runtime.getRuntime().availableProcessors());
+        if (workers <= 1) {
+            for (Map.Entry<ZipEntry, File> target : pending) {
+                extractEntry(zip, target.getKey(), target.getValue(), policy);
+            }
+            return;
+        }
+
+        Log.i(TAG, "extractAll: " + pending.size() + " entries on " + workers + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final Map.Entry<ZipEntry, File> target : pending) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        extractEntry(zip, target.getKey(), target.getValue(), policy);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) Utils.await(future);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Each entry gets its own stream from the central directory; ZipFile
+     * serializes the raw reads, the inflating runs in parallel.
+     */
+    private static void extractEntry(ZipFile zip, ZipEntry entry, File staged, FsyncPolicy policy)
+            throws IOException {
+        File parent = staged.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        Utils.writeExtractedFileToDisk(zip.getInputStream(entry), new FileOutputStream(staged), policy);
+    }
+}
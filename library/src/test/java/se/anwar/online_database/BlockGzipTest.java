@@ -0,0 +1,138 @@
+package se.anwar.online_database;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockGzipTest {
+
+    private static final int BLOCK = 0xff00;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * BGZF as {@code bgzip} writes it: members of at most {@link #BLOCK}
+     * bytes with a {@code BC} extra field, then the empty end-of-file member.
+     */
+    private static byte[] blockCompress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] compressed = new byte[BLOCK + 1024];
+        for (int start = 0; start <= data.length; start += BLOCK) {
+            int count = Math.min(BLOCK, data.length - start);
+            deflater.reset();
+            deflater.setInput(data, start, count);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, start, count);
+            int blockSize = 18 + length + 8 - 1;
+            out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                    (byte) blockSize, (byte) (blockSize >> 8)}, 0, 18);
+            out.write(compressed, 0, length);
+            writeInt(out, (int) crc.getValue());
+            writeInt(out, count);
+            // the last, empty member is the end-of-file marker
+            if (count == 0) break;
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] sample(int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(7);
+        // compressible, but not trivially so
+        for (int i = 0; i < length; i++) data[i] = (byte) ('a' + random.nextInt(8));
+        return data;
+    }
+
+    @Test
+    public void decompressesEveryBlockInOrder() throws IOException {
+        // a few hundred blocks, so they are split over several tasks
+        byte[] data = sample(BLOCK * 150 + 1234);
+        File archive = write(blockCompress(data));
+        File dest = mFolder.newFile();
+
+        assertTrue(BlockGzip.isBlockCompressed(archive));
+        long length = BlockGzip.decompress(archive, dest, FsyncPolicy.NONE);
+
+        assertEquals(data.length, length);
+        assertArrayEquals(data, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void plainGzipIsNotBlockCompressed() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(sample(1000));
+        gzip.close();
+
+        assertFalse(BlockGzip.isBlockCompressed(write(bytes.toByteArray())));
+        assertFalse(BlockGzip.isBlockCompressed(write(new byte[]{0x1f})));
+    }
+
+    @Test
+    public void corruptBlockFailsTheChecksum() throws IOException {
+        byte[] data = sample(BLOCK * 3);
+        File archive = write(blockCompress(data));
+        // flip a byte of the first block's CRC
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            file.seek(16);
+            int blockSize = (file.read() | file.read() << 8) + 1;
+            file.seek(blockSize - 8);
+            int crc = file.read();
+            file.seek(blockSize - 8);
+            file.write(crc ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        try {
+            BlockGzip.decompress(archive, mFolder.newFile(), FsyncPolicy.NONE);
+            fail("a corrupt block must not decompress");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("Checksum mismatch"));
+        }
+    }
+}
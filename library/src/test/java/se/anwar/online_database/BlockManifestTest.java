@@ -0,0 +1,82 @@
+package se.anwar.online_database;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockManifestTest {
+
+    private static BlockManifest parse(String text) throws IOException {
+        return BlockManifest.parse(new ByteArrayInputStream(text.getBytes("UTF-8")));
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return Utils.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+    @Test
+    public void parsesHeaderAndHashes() throws Exception {
+        String first = sha256(new byte[]{1});
+        String second = sha256(new byte[]{2});
+        BlockManifest manifest = parse("# two blocks\nsize 100\nblock 64\n\n"
+                + first.toUpperCase() + "\n" + second + "\n");
+
+        assertEquals(100, manifest.size);
+        assertEquals(64, manifest.blockSize);
+        assertEquals("SHA-256", manifest.algorithm);
+        assertEquals(2, manifest.getBlockCount());
+        assertEquals(64, manifest.getBlockLength(0));
+        assertEquals(36, manifest.getBlockLength(1));
+
+        MessageDigest digest = manifest.newDigest();
+        digest.update(new byte[]{1});
+        assertTrue(manifest.matches(0, digest));
+        digest.update(new byte[]{1});
+        assertFalse(manifest.matches(1, digest));
+    }
+
+    @Test
+    public void readsTheAlgorithm() throws Exception {
+        BlockManifest manifest = parse("size 10\nblock 10\nalgorithm MD5\n00\n");
+
+        assertEquals("MD5", manifest.algorithm);
+        assertEquals("MD5", manifest.newDigest().getAlgorithm());
+    }
+
+    @Test
+    public void unknownAlgorithmIsAnIOException() throws Exception {
+        try {
+            parse("size 10\nblock 10\nalgorithm NOPE\n00\n").newDigest();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsMissingHeader() throws Exception {
+        try {
+            parse("block 64\n00\n");
+            fail();
+        } catch (SQLiteOnlineException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsWrongHashCount() throws Exception {
+        try {
+            parse("size 200\nblock 64\n00\n00\n00\n");
+            fail();
+        } catch (SQLiteOnlineException expected) {
+            assertTrue(expected.getMessage().contains("expected 4"));
+        }
+    }
+}
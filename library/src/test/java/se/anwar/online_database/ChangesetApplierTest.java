@@ -0,0 +1,35 @@
+package se.anwar.online_database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Line parsing of {@link ChangesetApplier}; applying changesets to a database
+ * is covered by the instrumented ChangesetApplierInstrumentedTest.
+ */
+public class ChangesetApplierTest {
+
+    @Test
+    public void splitsOnTabs() {
+        assertEquals(Arrays.asList("+", "42", "Dune", "Frank Herbert"),
+                ChangesetApplier.split("+\t42\tDune\tFrank Herbert"));
+    }
+
+    @Test
+    public void keepsEmptyFields() {
+        assertEquals(Arrays.asList("+", "1", "", ""), ChangesetApplier.split("+\t1\t\t"));
+    }
+
+    @Test
+    public void nullMarkerIsNull() {
+        assertEquals(Arrays.asList("+", "1", null, "\\N "), ChangesetApplier.split("+\t1\t\\N\t\\\\N "));
+    }
+
+    @Test
+    public void unescapes() {
+        assertEquals(Arrays.asList("+", "a\tb\nc\rd\\e"), ChangesetApplier.split("+\ta\\tb\\nc\\rd\\\\e"));
+    }
+}
@@ -0,0 +1,94 @@
+package se.anwar.online_database;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import se.anwar.online_database.SQLiteOnlineHelper.OnFileDownloadListener;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadDispatcherTest {
+
+    private static class Result implements OnFileDownloadListener {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onDownloadStart() {
+        }
+
+        @Override
+        public void onDownloadProgress(int progress) {
+        }
+
+        @Override
+        public void onDownloadFailed(Exception e) {
+            done.countDown();
+        }
+
+        @Override
+        public void onDownloadSuccess() {
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void joinerOfARunningTaskHearsItsResult() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        Result first = new Result();
+        Result joiner = new Result();
+        assertNull(DownloadDispatcher.enqueue("join", first, new DownloadDispatcher.Task() {
+            @Override
+            public void run(OnFileDownloadListener listener) {
+                await(release);
+                listener.onDownloadSuccess();
+            }
+        }));
+
+        assertNotNull(DownloadDispatcher.enqueue("join", joiner, null));
+        release.countDown();
+
+        assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        assertTrue(joiner.done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requestAfterTheResultStartsANewTask() throws InterruptedException {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Result first = new Result();
+        DownloadDispatcher.enqueue("late", first, new DownloadDispatcher.Task() {
+            @Override
+            public void run(OnFileDownloadListener listener) {
+                listener.onDownloadSuccess();
+                delivered.countDown();
+                // the task is still running, but its result is out
+                await(release);
+            }
+        });
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        Result late = new Result();
+        boolean queued = DownloadDispatcher.enqueue("late", late, new DownloadDispatcher.Task() {
+            @Override
+            public void run(OnFileDownloadListener listener) {
+                listener.onDownloadSuccess();
+            }
+        }) == null;
+        release.countDown();
+
+        assertTrue("a request after the result must not join the finished task", queued);
+        assertTrue(late.done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
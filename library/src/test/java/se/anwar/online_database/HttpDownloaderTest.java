@@ -0,0 +1,149 @@
+package se.anwar.online_database;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Resuming an interrupted transfer against a local server that cuts the
+ * connection in the middle of the body.
+ */
+public class HttpDownloaderTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final byte[] mBody = new byte[300 * 1024];
+    private final List<String> mRanges = new ArrayList<>();
+    private HttpServer mServer;
+    private String mURL;
+    /**
+     * Bytes of the next full response sent before the connection is dropped, -1 for all.
+     */
+    private volatile int mCutAfter = -1;
+    /**
+     * Serve ranged requests from the wrong offset.
+     */
+    private volatile boolean mWrongRange = false;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(mBody);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/books.db.zip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.start();
+        mURL = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/books.db.zip";
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        synchronized (mRanges) {
+            mRanges.add(range);
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            if (range != null && ETAG.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                if (mWrongRange) start = 0;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (mBody.length - 1) + "/" + mBody.length);
+                exchange.sendResponseHeaders(206, mBody.length - start);
+                out.write(mBody, start, mBody.length - start);
+                return;
+            }
+            exchange.sendResponseHeaders(200, mBody.length);
+            int cut = mCutAfter;
+            mCutAfter = -1;
+            if (cut < 0) {
+                out.write(mBody);
+                return;
+            }
+            out.write(mBody, 0, cut);
+            out.flush();
+            // closing with the rest of the body unsent drops the connection
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private HttpDownloader newDownloader(File directory) {
+        HttpDownloader downloader = new HttpDownloader(directory, new File(directory, "books.db.resume"));
+        downloader.setResumeEnabled(true);
+        return downloader;
+    }
+
+    private File interruptedDownload(File directory) {
+        mCutAfter = 100 * 1024;
+        try {
+            newDownloader(directory).download(mURL, null);
+            fail("the transfer was cut, download should fail");
+        } catch (IOException expected) {
+        }
+        File partial = new File(directory, "books.db.zip");
+        assertTrue(partial.exists());
+        assertTrue(partial.length() > 0 && partial.length() < mBody.length);
+        return partial;
+    }
+
+    @Test
+    public void resumesWithRangeAfterConnectionCut() throws IOException {
+        File directory = mFolder.newFolder();
+        File partial = interruptedDownload(directory);
+        long offset = partial.length();
+
+        File file = newDownloader(directory).download(mURL, null);
+
+        assertArrayEquals(mBody, Files.readAllBytes(file.toPath()));
+        assertEquals("bytes=" + offset + "-", mRanges.get(mRanges.size() - 1));
+        assertFalse(new File(directory, "books.db.resume").exists());
+    }
+
+    @Test
+    public void restartsWhenContentRangeDoesNotMatchOffset() throws IOException {
+        File directory = mFolder.newFolder();
+        interruptedDownload(directory);
+        mWrongRange = true;
+
+        File file = newDownloader(directory).download(mURL, null);
+
+        assertArrayEquals(mBody, Files.readAllBytes(file.toPath()));
+        // the ranged attempt, then the whole file again
+        assertEquals(3, mRanges.size());
+        assertEquals(null, mRanges.get(2));
+        assertFalse(new File(directory, "books.db.resume").exists());
+    }
+}
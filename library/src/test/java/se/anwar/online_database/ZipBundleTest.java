@@ -0,0 +1,121 @@
+package se.anwar.online_database;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import se.anwar.online_database.SQLiteOnlineHelper.SQLiteOnlineException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipBundleTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * @param entries name, content, name, content...
+     */
+    private File zip(String... entries) throws IOException {
+        File file = mFolder.newFile("bundle.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putNextEntry(new ZipEntry(entries[i]));
+                if (entries[i + 1] != null) out.write(entries[i + 1].getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    @Test
+    public void firstFileIsTheDatabaseOthersKeepTheirPaths() throws IOException {
+        File archive = zip("__MACOSX/._books.db", "fork",
+                "books.db", "database",
+                "media/", null,
+                "media/cover.jpg", "jpeg",
+                "notes.txt", "text");
+        File directory = mFolder.newFolder("databases");
+        File staged = new File(directory, "books.db.tmp");
+
+        ZipBundle bundle = new ZipBundle(archive, directory, "books.db", staged);
+        bundle.extract(FsyncPolicy.NONE);
+
+        assertEquals("database", read(staged));
+        // companions wait next to their destination until the database is installed
+        assertTrue(new File(directory, "media/cover.jpg.tmp").exists());
+        assertFalse(new File(directory, "media/cover.jpg").exists());
+        assertFalse(new File(directory, "__MACOSX").exists());
+
+        bundle.installCompanions();
+        assertEquals("jpeg", read(new File(directory, "media/cover.jpg")));
+        assertEquals("text", read(new File(directory, "notes.txt")));
+        assertFalse(new File(directory, "notes.txt.tmp").exists());
+    }
+
+    @Test
+    public void manifestMapsEntriesAndSkipsTheRest() throws IOException {
+        File archive = zip(ZipBundle.MANIFEST_ENTRY, "# entry destination\nv2/books.db books.db\nindex/fts.db books_fts.db\n",
+                "v2/books.db", "database",
+                "index/fts.db", "index",
+                "unlisted.txt", "skip me");
+        File directory = mFolder.newFolder("databases");
+        File staged = new File(directory, "books.db.tmp");
+
+        ZipBundle bundle = new ZipBundle(archive, directory, "books.db", staged);
+        bundle.extract(FsyncPolicy.NONE);
+        bundle.installCompanions();
+
+        assertEquals("database", read(staged));
+        assertEquals("index", read(new File(directory, "books_fts.db")));
+        assertFalse(new File(directory, "unlisted.txt").exists());
+        assertFalse(new File(directory, "unlisted.txt.tmp").exists());
+    }
+
+    @Test
+    public void rejectsEntriesOutsideTheDirectory() throws IOException {
+        File archive = zip(ZipBundle.MANIFEST_ENTRY, "books.db books.db\nevil ../evil\n",
+                "books.db", "database",
+                "evil", "payload");
+        File directory = mFolder.newFolder("databases");
+
+        try {
+            new ZipBundle(archive, directory, "books.db", new File(directory, "books.db.tmp")).extract(FsyncPolicy.NONE);
+            fail("an entry escaping the directory must be rejected");
+        } catch (SQLiteOnlineException expected) {
+        }
+        assertFalse(new File(mFolder.getRoot(), "evil").exists());
+        assertFalse(new File(mFolder.getRoot(), "evil.tmp").exists());
+    }
+
+    @Test
+    public void failedExtractDiscardsStagedCompanions() throws IOException {
+        File archive = zip(ZipBundle.MANIFEST_ENTRY, "index/fts.db books_fts.db\n",
+                "index/fts.db", "index");
+        File directory = mFolder.newFolder("databases");
+
+        try {
+            new ZipBundle(archive, directory, "books.db", new File(directory, "books.db.tmp")).extract(FsyncPolicy.NONE);
+            fail("a bundle without the database must be rejected");
+        } catch (SQLiteOnlineException expected) {
+        }
+        assertFalse(new File(directory, "books_fts.db.tmp").exists());
+    }
+}